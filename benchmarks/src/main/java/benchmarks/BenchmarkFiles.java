@@ -0,0 +1,81 @@
+package benchmarks;
+
+import runner.Config;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Creates the temporary folders and input files of the benchmarks, which run on files.
+ */
+final class BenchmarkFiles {
+
+    private BenchmarkFiles() {
+    }
+
+    /**
+     * @return the default config, whose temp and result folders are inside the given folder.
+     */
+    static Config config(Path folder) {
+        Config config = new Config(0.9);
+        config.tempFolder = folder.toString();
+        config.resultFolder = folder.toString();
+        return config;
+    }
+
+    /**
+     * Writes a relation with a header line, whose columns are named column0, column1, ...
+     *
+     * @param values the value of a row and column
+     */
+    static void writeRelation(Path path, int rows, int columns, ValueGenerator values) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+            for (int column = 0; column < columns; column++) {
+                if (column > 0) writer.write(',');
+                writer.write("column" + column);
+            }
+            writer.write('\n');
+            for (int row = 0; row < rows; row++) {
+                for (int column = 0; column < columns; column++) {
+                    if (column > 0) writer.write(',');
+                    writer.write(values.value(row, column));
+                }
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Deletes all files of the folder, which are not kept.
+     */
+    static void clear(Path folder, Path... kept) {
+        try (Stream<Path> files = Files.list(folder)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (Stream.of(kept).noneMatch(file::startsWith)) {
+                    delete(file);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static void delete(Path path) {
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    interface ValueGenerator {
+        String value(int row, int column);
+    }
+}
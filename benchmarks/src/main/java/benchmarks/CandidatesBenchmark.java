@@ -0,0 +1,113 @@
+package benchmarks;
+
+import com.opencsv.exceptions.CsvValidationException;
+import org.openjdk.jmh.annotations.*;
+import runner.Config;
+import structures.Attribute;
+import structures.Candidates;
+import structures.PINDList;
+import structures.RelationMetadata;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates the candidates of the next layer from the pINDs of the current layer. The pINDs connect random attribute pairs of ten relations with the given density, so that
+ * the number of unary pINDs grows quadratically with the number of attributes.
+ * <p>
+ * The binary layer is generated from the unary pINDs. The ternary layer is generated from the binary pINDs and also needs their look-ups. Like the unary pINDs, a binary
+ * candidate is taken as a pIND with the given density. Taking every binary candidate would let the ternary layer explode far beyond any real workload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class CandidatesBenchmark {
+    private static final int RELATIONS = 10;
+
+    @Param({"100", "400"})
+    public int attributes;
+
+    @Param({"0.02", "0.1"})
+    public double density;
+
+    @Param({"1", "2"})
+    public int layer;
+
+    private Path folder;
+    private Config config;
+    private RelationMetadata[] relations;
+    private boolean[][] pINDs;
+    private Random random;
+    private Attribute[] layerAttributes;
+    private Candidates candidates;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, CsvValidationException {
+        folder = Files.createTempDirectory("spind-candidates");
+        config = BenchmarkFiles.config(folder);
+        int columns = attributes / RELATIONS;
+        relations = new RelationMetadata[RELATIONS];
+        for (int relation = 0; relation < RELATIONS; relation++) {
+            Path path = folder.resolve("relation_" + relation + ".csv");
+            BenchmarkFiles.writeRelation(path, 1, columns, (row, column) -> "v");
+            relations[relation] = new RelationMetadata(relation, relation * columns, path, config);
+        }
+
+        random = new Random(42);
+        pINDs = new boolean[attributes][attributes];
+        for (int dependant = 0; dependant < attributes; dependant++) {
+            for (int referenced = 0; referenced < attributes; referenced++) {
+                pINDs[dependant][referenced] = dependant != referenced && random.nextDouble() < density;
+            }
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void loadLayer() {
+        int columns = attributes / RELATIONS;
+        Attribute[] unary = new Attribute[attributes];
+        for (int id = 0; id < attributes; id++) {
+            unary[id] = new Attribute(id, id / columns, new int[]{id % columns});
+            unary[id].getMetadata().totalValues = 1L;
+            PINDList referenced = new PINDList();
+            for (int referencedId = 0; referencedId < attributes; referencedId++) {
+                if (pINDs[id][referencedId]) referenced.add(referencedId, 0L);
+            }
+            unary[id].setReferenced(referenced);
+        }
+        candidates = new Candidates(config);
+        candidates.current = unary;
+        layerAttributes = unary;
+        if (layer == 2) {
+            layerAttributes = candidates.generateNextLayer(unary, relations, 1);
+            // the same binary candidates are taken as pINDs in every invocation
+            random.setSeed(42);
+            for (Attribute attribute : layerAttributes) {
+                attribute.getMetadata().totalValues = 1L;
+                if (attribute.getReferenced() == null) continue;
+                PINDList.PINDIterator iterator = attribute.getReferenced().elementIterator();
+                while (iterator.hasNext()) {
+                    iterator.next();
+                    if (random.nextDouble() >= density) iterator.remove();
+                }
+            }
+            candidates.cleanCandidates();
+        }
+    }
+
+    @Benchmark
+    public Attribute[] generateNextLayer() {
+        return candidates.generateNextLayer(layerAttributes, relations, layer);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkFiles.delete(folder);
+    }
+}
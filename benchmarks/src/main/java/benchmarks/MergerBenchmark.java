@@ -0,0 +1,190 @@
+package benchmarks;
+
+import io.BlockSummary;
+import io.Merger;
+import io.RecordCodec;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import runner.Config;
+import structures.Attribute;
+import structures.LoserTree;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges sorted runs at different fan-ins. The time and the allocations are given per record of the input runs. The mode chooses what is merged:
+ * <ul>
+ *     <li>files and finalFile merge run files with the {@link Merger}, including the decoding and re-encoding of the value groups, which span several runs. finalFile writes
+ *     a relation file, which also counts the unique values of the attributes.</li>
+ *     <li>loserTree and priorityQueue only merge the values of the same runs in memory, which compares the loser tree, which is used by the Merger and the Validator, with
+ *     the PriorityQueue of head entries that was used before.</li>
+ * </ul>
+ * The values choose the shape of the runs:
+ * <ul>
+ *     <li>prefixed values are zero-padded numbers of a shared range, so that values occur in several runs, like the runs of the chunks of a relation do. They have a long
+ *     common prefix, like the ids of a single column often have, which is why the head prefixes, which the loser tree caches, decide few comparisons.</li>
+ *     <li>random values are random letters, which rarely occur in several runs. The cached head prefixes decide most comparisons.</li>
+ * </ul>
+ * The merger deletes its inputs, which is why the run files are copied before every merge. Merging files at a fan-in of 1024 needs more than 1024 open files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MergerBenchmark {
+    private static final int RECORDS = 1 << 18;
+    private static final int ATTRIBUTES = 8;
+
+    @Param({"2", "8", "32", "128", "512", "1024"})
+    public int fanIn;
+
+    @Param({"files", "finalFile", "loserTree", "priorityQueue"})
+    public String mode;
+
+    @Param({"prefixed", "random"})
+    public String values;
+
+    private Path folder;
+    private Path originals;
+    private Config config;
+    private Attribute[] attributes;
+    private List<Path> runs;
+    private Path result;
+    // the values of every run for the merges in memory
+    private byte[][][] runValues;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        folder = Files.createTempDirectory("spind-merge");
+        originals = Files.createDirectory(folder.resolve("originals"));
+        config = BenchmarkFiles.config(folder);
+        RecordCodec codec = new RecordCodec(config);
+        Random random = new Random(42);
+
+        attributes = new Attribute[ATTRIBUTES];
+        for (int id = 0; id < ATTRIBUTES; id++) {
+            attributes[id] = new Attribute(id, 0, new int[]{id});
+        }
+        runs = new ArrayList<>();
+        runValues = new byte[fanIn][][];
+        for (int run = 0; run < fanIn; run++) {
+            TreeMap<String, Map<Integer, Long>> records = new TreeMap<>();
+            while (records.size() < RECORDS / fanIn) {
+                String value = values.equals("random") ? randomValue(random) : String.format("%09d", random.nextInt(RECORDS * 4));
+                records.computeIfAbsent(value, v -> new TreeMap<>()).merge(random.nextInt(ATTRIBUTES), 1L + random.nextInt(3), Long::sum);
+            }
+            runValues[run] = records.keySet().stream().map(RecordCodec::encodeValue).toArray(byte[][]::new);
+            try (RecordCodec.Writer writer = codec.writer(originals.resolve("run_" + run + ".bin"))) {
+                for (Map.Entry<String, Map<Integer, Long>> record : records.entrySet()) {
+                    byte[] value = RecordCodec.encodeValue(record.getKey());
+                    writer.write(value, value.length, record.getValue());
+                }
+            }
+            runs.add(folder.resolve("run_" + run + ".bin"));
+        }
+        result = folder.resolve("merged.bin");
+    }
+
+    private static String randomValue(Random random) {
+        char[] value = new char[8 + random.nextInt(12)];
+        for (int i = 0; i < value.length; i++) {
+            value[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(value);
+    }
+
+    @Setup(Level.Invocation)
+    public void copyRuns() throws IOException {
+        if (!isFileMode()) return;
+        for (int run = 0; run < fanIn; run++) {
+            Path original = originals.resolve(runs.get(run).getFileName());
+            Files.copy(original, runs.get(run), StandardCopyOption.REPLACE_EXISTING);
+            if (Files.exists(BlockSummary.path(original))) {
+                Files.copy(BlockSummary.path(original), BlockSummary.path(runs.get(run)), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Arrays.stream(attributes).forEach(attribute -> attribute.getMetadata().uniqueValues = 0L);
+    }
+
+    private boolean isFileMode() {
+        return mode.equals("files") || mode.equals("finalFile");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void merge(Blackhole blackhole) throws IOException {
+        switch (mode) {
+            case "files" -> new Merger(config).merge(runs, result, attributes, false);
+            case "finalFile" -> new Merger(config).merge(runs, result, attributes, true);
+            case "loserTree" -> loserTree(blackhole);
+            case "priorityQueue" -> priorityQueue(blackhole);
+            default -> throw new IllegalArgumentException("Unknown mode " + mode);
+        }
+    }
+
+    private void loserTree(Blackhole blackhole) {
+        int[] cursors = new int[fanIn];
+        LoserTree tree = new LoserTree(fanIn, (a, b) -> Arrays.compareUnsigned(runValues[a][cursors[a]], runValues[b][cursors[b]]));
+        for (int run = 0; run < fanIn; run++) {
+            tree.setHead(run, LoserTree.prefix(runValues[run][0], 0, runValues[run][0].length));
+        }
+        tree.build();
+
+        int run;
+        while ((run = tree.winner()) >= 0) {
+            blackhole.consume(runValues[run][cursors[run]]);
+            if (++cursors[run] == runValues[run].length) {
+                tree.exhaust();
+            } else {
+                byte[] head = runValues[run][cursors[run]];
+                tree.advance(LoserTree.prefix(head, 0, head.length));
+            }
+        }
+    }
+
+    private void priorityQueue(Blackhole blackhole) {
+        PriorityQueue<Head> heads = new PriorityQueue<>(fanIn);
+        for (int run = 0; run < fanIn; run++) {
+            heads.add(new Head(runValues[run][0], run, 0));
+        }
+
+        while (!heads.isEmpty()) {
+            Head head = heads.poll();
+            blackhole.consume(head.value);
+            int next = head.index + 1;
+            if (next < runValues[head.run].length) {
+                heads.add(new Head(runValues[head.run][next], head.run, next));
+            }
+        }
+    }
+
+    private record Head(byte[] value, int run, int index) implements Comparable<Head> {
+        @Override
+        public int compareTo(Head other) {
+            return Arrays.compareUnsigned(value, other.value);
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteResult() throws IOException {
+        if (isFileMode()) BlockSummary.delete(result);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkFiles.delete(folder);
+    }
+}
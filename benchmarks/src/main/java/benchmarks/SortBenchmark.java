@@ -0,0 +1,91 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import runner.Config;
+import structures.Attribute;
+import structures.Chunk;
+import structures.MemoryBudget;
+import structures.SortJob;
+import structures.SortResult;
+import structures.ValueSketch;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorts a synthetic chunk of the first layer, from parsing the rows to writing the sorted runs. The time and the allocations are given per row of the chunk.
+ * <p>
+ * Every column draws its values from the given number of distinct values, a small number leaves the sorter with few values per row, while a large number makes it spill.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SortBenchmark {
+    private static final int ROWS = 100_000;
+
+    @Param({"4", "16"})
+    public int columns;
+
+    @Param({"1000", "1000000"})
+    public int distinct;
+
+    @Param({"false", "true"})
+    public boolean sketches;
+
+    private Path folder;
+    private Path relation;
+    private Config config;
+    private Chunk chunk;
+    private List<Attribute> attributes;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        folder = Files.createTempDirectory("spind-sort");
+        relation = folder.resolve("relation.csv");
+        Random random = new Random(42);
+        BenchmarkFiles.writeRelation(relation, ROWS, columns, (row, column) -> "v" + random.nextInt(distinct));
+
+        config = BenchmarkFiles.config(folder);
+        // the column cache is only written if later layers need it
+        config.maxNary = 1;
+        String[] header = new String[columns];
+        attributes = new ArrayList<>();
+        for (int column = 0; column < columns; column++) {
+            header[column] = "column" + column;
+            attributes.add(new Attribute(column, 0, new int[]{column}));
+        }
+        chunk = new Chunk(relation, 0L, Files.size(relation), header, true, folder.resolve("r_0_c_0"));
+    }
+
+    @Setup(Level.Invocation)
+    public void resetSketches() {
+        for (Attribute attribute : attributes) {
+            attribute.setSketch(sketches ? new ValueSketch() : null);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public SortResult sort() throws Exception {
+        SortJob job = new SortJob(chunk, attributes, 0, config.SORT_SIZE / config.PARALLEL, config.CHUNK_SIZE, config, null, 1, null, MemoryBudget.of(config));
+        return job.call();
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteRuns() {
+        BenchmarkFiles.clear(folder, relation);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkFiles.delete(folder);
+    }
+}
@@ -0,0 +1,111 @@
+package benchmarks;
+
+import io.RecordCodec;
+import io.Validator;
+import org.openjdk.jmh.annotations.*;
+import runner.Config;
+import structures.Attribute;
+import structures.Candidates;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validates the unary candidates of generated relation files, which covers the merge of the relation files, the pruning of the candidates and the early end of the
+ * validation. The time and the allocations are given per record of the relation files.
+ * <p>
+ * The values are numbers, a column holds the multiples of its step up to its limit. Columns, whose step is a multiple of the step of another column, are therefore mostly
+ * included in that column, which leaves a mix of candidates that fail early, fail late and hold. The first column of every relation holds all values, like a key column.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValidatorBenchmark {
+    private static final int RELATIONS = 4;
+    private static final int VALUES = 200_000;
+    private static final int[] STEPS = {1, 2, 3, 4, 6, 12};
+
+    @Param({"4", "16"})
+    public int columns;
+
+    private Path folder;
+    private Config config;
+    private Map<Integer, List<Path>> relationFiles;
+    private long[] totalValues;
+    private Candidates candidates;
+    private Validator validator;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        folder = Files.createTempDirectory("spind-validate");
+        config = BenchmarkFiles.config(folder);
+        // the bloom filter of the next layer would dominate the validation
+        config.useFilter = false;
+        RecordCodec codec = new RecordCodec(config);
+
+        relationFiles = new HashMap<>();
+        totalValues = new long[RELATIONS * columns];
+        for (int relation = 0; relation < RELATIONS; relation++) {
+            Path path = folder.resolve("relation_" + relation + ".bin");
+            try (RecordCodec.Writer writer = codec.writer(path)) {
+                for (int value = 0; value < VALUES; value++) {
+                    Map<Integer, Long> contained = new TreeMap<>();
+                    for (int column = 0; column < columns; column++) {
+                        int id = relation * columns + column;
+                        if (value % step(id) == 0 && value < limit(id)) {
+                            contained.put(id, 1L);
+                            totalValues[id]++;
+                        }
+                    }
+                    byte[] encoded = RecordCodec.encodeValue(String.format("%09d", value));
+                    writer.write(encoded, encoded.length, contained);
+                }
+            }
+            relationFiles.put(relation, List.of(path));
+        }
+    }
+
+    /**
+     * The first column of every relation holds all values, so that every relation file has a record for every value.
+     */
+    private int step(int id) {
+        return id % columns == 0 ? 1 : STEPS[id % STEPS.length];
+    }
+
+    private int limit(int id) {
+        return id % columns == 0 ? VALUES : VALUES - (id / STEPS.length) * (VALUES / (4 * RELATIONS * columns));
+    }
+
+    @Setup(Level.Invocation)
+    public void createValidator() throws IOException {
+        Attribute[] attributes = new Attribute[RELATIONS * columns];
+        for (int id = 0; id < attributes.length; id++) {
+            attributes[id] = new Attribute(id, id / columns, new int[]{id % columns});
+            attributes[id].getMetadata().totalValues = totalValues[id];
+        }
+        candidates = new Candidates(config);
+        candidates.loadUnary(attributes);
+        validator = new Validator(config, candidates, relationFiles, Math.max(1, config.VALIDATION_SIZE / RELATIONS), false);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RELATIONS * VALUES)
+    public long validate() {
+        validator.validate(1, null);
+        return candidates.openCandidates();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkFiles.delete(folder);
+    }
+}
@@ -0,0 +1,150 @@
+package core;
+
+import com.opencsv.exceptions.CsvValidationException;
+import io.RelationalInput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import runner.Config;
+import structures.MemoryBudget;
+import structures.RelationMetadata;
+import structures.SortJob;
+import structures.TuningPlan;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Chooses CHUNK_SIZE, SORT_SIZE, MERGE_SIZE and VALIDATION_SIZE for the input at hand (see {@link Config#autoTune}), instead of relying on values that were tuned offline for
+ * other datasets. The planner reads the first {@link #SAMPLE_RECORDS} records of every relation and extrapolates the number of records, values and distinct values from the
+ * size of the relation file. Since a prefix of a relation tends to hold fewer duplicates than the whole relation, the distinct values are an upper bound.
+ * <p>
+ * The parameters are derived from the profile, the parallelism and the maximal heap size and are bounded by the parameter bounds of the offline tuning (see
+ * hyperparameters/README.md). The fixed upper bound of SORT_SIZE there stands for the main memory of the tuning machine, which is why SORT_SIZE is bounded by the heap instead.
+ */
+final class Planner {
+    private static final int SAMPLE_RECORDS = 10_000;
+    // the parameter bounds of the offline tuning, see hyperparameters/README.md
+    private static final long MIN_CHUNK_SIZE = 10_000;
+    private static final long MAX_CHUNK_SIZE = 100_000_000;
+    private static final long MIN_SORT_SIZE = 10_000;
+    private static final long MIN_MERGE_SIZE = 2;
+    private static final long MAX_MERGE_SIZE = 1_000;
+    private static final long MIN_VALIDATION_SIZE = 1;
+    private static final long MAX_VALIDATION_SIZE = 1_000_000;
+    // every core should be able to pick from several chunks, so that a large chunk does not keep the other cores waiting
+    private static final int CHUNKS_PER_CORE = 4;
+    // the estimated heap a distinct value needs in a sorter, besides its bytes
+    private static final int SORTER_BYTES_PER_VALUE = 48;
+    // the estimated heap a value of a validation round needs, besides its bytes
+    private static final int VALIDATION_BYTES_PER_VALUE = 128;
+    // the share of the heap, which is not given to the sorters, that the values of a validation round may occupy
+    private static final double VALIDATION_MEMORY_FRACTION = 0.25;
+
+    private final Config config;
+    private final Logger logger = LoggerFactory.getLogger(Planner.class);
+
+    Planner(Config config) {
+        this.config = config;
+    }
+
+    /**
+     * Profiles the relations and writes the chosen sizes into the config.
+     *
+     * @return the chosen sizes together with the profile and the reasoning.
+     */
+    TuningPlan plan(RelationMetadata[] relations) throws IOException, CsvValidationException {
+        TuningPlan plan = new TuningPlan();
+        int parallelism = Math.max(1, config.PARALLEL);
+        plan.parallelism = parallelism;
+        plan.maxMemory = Runtime.getRuntime().maxMemory();
+
+        long sampledBytes = 0L;
+        long sampledValues = 0L;
+        // the estimated distinct values of a chunk of the relation with the most duplicate free columns, relative to the values of the chunk
+        double maxDistinctRatio = 0.0;
+        long[] relationValues = new long[relations.length];
+        for (RelationMetadata relation : relations) {
+            RelationalInput input = new RelationalInput(relation.relationPath(), config);
+            int columns = relation.columnNames.length;
+            List<Set<String>> distinct = new ArrayList<>(columns);
+            for (int column = 0; column < columns; column++) {
+                distinct.add(new HashSet<>());
+            }
+            long records = 0L;
+            long bytes = 0L;
+            while (input.hasNext() && records < SAMPLE_RECORDS) {
+                String[] line = input.next();
+                for (int column = 0; column < columns && column < line.length; column++) {
+                    distinct.get(column).add(line[column]);
+                    bytes += line[column].length() + 1;
+                }
+                records++;
+            }
+            boolean complete = !input.hasNext();
+            input.close();
+
+            long distinctValues = 0L;
+            for (Set<String> values : distinct) {
+                distinctValues += values.size();
+            }
+            // a relation, which has been read completely, does not need to be extrapolated
+            long estimatedRecords = complete || bytes == 0L ? records : Math.max(records, (long) ((double) relation.size() * records / bytes));
+            double distinctRatio = records == 0L ? 0.0 : (double) distinctValues / (records * columns);
+            relationValues[relation.id] = estimatedRecords * columns;
+
+            plan.sampledRecords += records;
+            plan.estimatedRecords += estimatedRecords;
+            plan.estimatedValues += estimatedRecords * columns;
+            plan.estimatedDistinctValues += complete ? distinctValues : (long) (distinctRatio * estimatedRecords * columns);
+            sampledBytes += bytes;
+            sampledValues += records * columns;
+            maxDistinctRatio = Math.max(maxDistinctRatio, distinctRatio);
+        }
+        plan.averageValueLength = sampledValues == 0L ? 0.0 : (double) sampledBytes / sampledValues - 1.0;
+
+        long chunkSize = clamp(ceilDiv(plan.estimatedValues, (long) CHUNKS_PER_CORE * parallelism), MIN_CHUNK_SIZE, MAX_CHUNK_SIZE);
+        plan.decide("CHUNK_SIZE", chunkSize, String.format("%d values spread over %d chunks per core, bounded by [%d, %d]", plan.estimatedValues, CHUNKS_PER_CORE,
+                MIN_CHUNK_SIZE, MAX_CHUNK_SIZE));
+
+        long sortMemory = MemoryBudget.of(config).capacity();
+        long maxSortSize = Math.max(MIN_SORT_SIZE, sortMemory / SortJob.BYTES_PER_ENTRY);
+        long sortSize = clamp(chunkSize * parallelism, MIN_SORT_SIZE, maxSortSize);
+        plan.decide("SORT_SIZE", sortSize, String.format("the values of one chunk per core, bounded by [%d, %d], the upper bound are %d bytes of sort memory at %d bytes per entry%s",
+                MIN_SORT_SIZE, maxSortSize, sortMemory, SortJob.BYTES_PER_ENTRY, config.adaptiveSpilling ? ", only used if adaptiveSpilling is disabled" : ""));
+
+        // a sorter spills, once the distinct values of its chunk exceed its share of the sort memory
+        double chunkBytes = chunkSize * maxDistinctRatio * (SORTER_BYTES_PER_VALUE + plan.averageValueLength);
+        long runsPerChunk = Math.max(1L, (long) Math.ceil(chunkBytes / Math.max(1L, sortMemory / parallelism)));
+        long maxRuns = 0L;
+        for (long values : relationValues) {
+            maxRuns = Math.max(maxRuns, ceilDiv(values, chunkSize) * runsPerChunk);
+        }
+        long mergeSize = clamp(parallelism * Math.max(2L, maxRuns), MIN_MERGE_SIZE, MAX_MERGE_SIZE);
+        plan.decide("MERGE_SIZE", mergeSize, String.format("up to %d sorted runs per relation (%d per chunk), merged in a single round per relation, bounded by [%d, %d] open files",
+                maxRuns, runsPerChunk, MIN_MERGE_SIZE, MAX_MERGE_SIZE));
+
+        long validationMemory = (long) ((plan.maxMemory - Math.min(plan.maxMemory, sortMemory)) * VALIDATION_MEMORY_FRACTION);
+        long validationSize = clamp(Math.min(validationMemory / (long) (VALIDATION_BYTES_PER_VALUE + plan.averageValueLength), plan.estimatedDistinctValues),
+                MIN_VALIDATION_SIZE, MAX_VALIDATION_SIZE);
+        plan.decide("VALIDATION_SIZE", validationSize, String.format("%d bytes of heap for a round at %d bytes per value, at most %d distinct values, bounded by [%d, %d]",
+                validationMemory, VALIDATION_BYTES_PER_VALUE + Math.round(plan.averageValueLength), plan.estimatedDistinctValues, MIN_VALIDATION_SIZE, MAX_VALIDATION_SIZE));
+
+        config.CHUNK_SIZE = (int) chunkSize;
+        config.SORT_SIZE = (int) Math.min(Integer.MAX_VALUE, sortSize);
+        config.MERGE_SIZE = (int) mergeSize;
+        config.VALIDATION_SIZE = (int) validationSize;
+        logger.info("Planned sizes from " + plan.sampledRecords + " sampled records: " + plan.values);
+        return plan;
+    }
+
+    private static long ceilDiv(long a, long b) {
+        return (a + b - 1) / b;
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,132 @@
+package core;
+
+import io.Merger;
+import runner.Config;
+import structures.Attribute;
+import structures.Metrics;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Merges the sorted runs of a single relation while its chunks are still being sorted. As soon as there are enough runs for a merge job, the job is started, instead of
+ * waiting for all chunks of the relation. The merged runs are merged again, until all chunks are sorted and fewer runs than the merge size are left. These runs are then
+ * either merged into the relation file or, if the validation is pipelined, handed to the validation as they are.
+ */
+final class RelationMerge {
+    private final Config config;
+    private final Scheduler scheduler;
+    private final Metrics metrics;
+    private final Attribute[] attributes;
+    private final int relationId;
+    private final boolean pipelined;
+    private final int mergeSize;
+    private final List<Path> pending = new ArrayList<>();
+    private final CompletableFuture<List<Path>> result = new CompletableFuture<>();
+    private int outstandingSorts;
+    private int runningMerges;
+    private int mergeCount;
+    // set once the result is known or the final merge has been started
+    private boolean finished;
+    // the first failed sort or merge, no further merges are started once it is set
+    private Throwable failure;
+
+    /**
+     * @param sorts     the number of sort jobs of the relation
+     * @param pipelined if true, the last merge round is skipped. Its input files are validated directly, instead of being merged into a relation file.
+     */
+    RelationMerge(Config config, Scheduler scheduler, Metrics metrics, Attribute[] attributes, int relationId, int sorts, boolean pipelined) {
+        this.config = config;
+        this.scheduler = scheduler;
+        this.metrics = metrics;
+        this.attributes = attributes;
+        this.relationId = relationId;
+        this.pipelined = pipelined;
+        this.outstandingSorts = sorts;
+        this.mergeSize = Math.max(2, config.MERGE_SIZE / config.PARALLEL); // we need to always merge at least two files
+    }
+
+    /**
+     * @return the files the validation has to read: the sorted relation file or, if pipelined, the inputs of the last merge round.
+     */
+    CompletableFuture<List<Path>> result() {
+        return result;
+    }
+
+    /**
+     * Adds the runs of a finished sort job.
+     */
+    synchronized void sorted(List<Path> runs) {
+        pending.addAll(runs);
+        outstandingSorts--;
+        schedule();
+    }
+
+    /**
+     * Records a sort job, which has failed. The result fails as soon as the sorts and merges, which are still running, have finished.
+     */
+    synchronized void sortFailed(Throwable exception) {
+        if (failure == null) failure = exception;
+        outstandingSorts--;
+        schedule();
+    }
+
+    private synchronized void merged(Path run, Throwable exception) {
+        if (exception == null) pending.add(run);
+        else if (failure == null) failure = exception;
+        runningMerges--;
+        schedule();
+    }
+
+    private void schedule() {
+        if (failure != null) {
+            // the runs of a failed job are missing, merging the other runs would silently drop the values of the relation
+            if (outstandingSorts == 0 && runningMerges == 0 && !finished) {
+                finished = true;
+                result.completeExceptionally(failure);
+            }
+            return;
+        }
+        // Case 1: There are enough files for a merge job -> Merge the oldest runs and merge the result again later
+        while (pending.size() >= mergeSize) {
+            List<Path> runs = new ArrayList<>(pending.subList(0, mergeSize));
+            pending.subList(0, mergeSize).clear();
+            Path resultPath = Path.of(config.tempFolder + File.separator + "r_" + relationId + "_m_" + mergeCount++ + ".txt");
+            runningMerges++;
+            synchronized (metrics) {
+                metrics.mergeFiles++;
+            }
+            scheduler.submit(() -> {
+                new Merger(config).merge(runs, resultPath, attributes, false);
+                return resultPath;
+            }).whenComplete(this::merged);
+        }
+        if (outstandingSorts > 0 || runningMerges > 0 || finished) {
+            return;
+        }
+
+        // Case 2: The number of files does not exceed the threshold -> the next merge finishes the relation file.
+        finished = true;
+        if (pending.isEmpty() || pipelined) {
+            // the validation merges the files of all relations at once
+            result.complete(new ArrayList<>(pending));
+            return;
+        }
+        List<Path> runs = new ArrayList<>(pending);
+        Path resultPath = Path.of(config.tempFolder + File.separator + "relation_" + relationId + ".txt");
+        synchronized (metrics) {
+            metrics.mergeFiles++;
+        }
+        scheduler.submit(() -> {
+            new Merger(config).merge(runs, resultPath, attributes, true);
+            return List.of(resultPath);
+        }).whenComplete((files, exception) -> {
+            if (exception != null) result.completeExceptionally(exception);
+            else result.complete(files);
+        });
+        pending.clear();
+    }
+}
@@ -0,0 +1,64 @@
+package core;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * The scheduler owns all threads of an execution. It is a single work-stealing pool with config.PARALLEL threads, which runs the chunking, sorting, merging and validation
+ * tasks of all layers.
+ * <p>
+ * Parallel streams, that are started inside a task of the pool, are executed by the pool as well. This is why the validation and the generation of the next layer, which use
+ * parallel streams, are run through {@link #run(Callable)} instead of on the calling thread, which would use the common pool.
+ */
+public class Scheduler {
+    private final ForkJoinPool pool;
+
+    public Scheduler(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Starts a task in the pool.
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return task.call();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, pool);
+    }
+
+    /**
+     * Runs all tasks in the pool and waits until they are done.
+     */
+    public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) {
+        return pool.invokeAll(tasks);
+    }
+
+    /**
+     * Runs a task in the pool and waits for its result.
+     */
+    public <T> T run(Callable<T> task) throws IOException, InterruptedException {
+        try {
+            return pool.submit(task).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) throw ioException;
+            if (e.getCause() instanceof RuntimeException runtimeException) throw runtimeException;
+            if (e.getCause() instanceof Error error) throw error;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
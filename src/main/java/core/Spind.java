@@ -1,11 +1,12 @@
 package core;
 
-import com.google.common.hash.BloomFilter;
-import com.google.common.hash.Funnels;
 import com.opencsv.exceptions.CsvValidationException;
-import io.Merger;
+import io.BlockCompression;
+import io.BlockSummary;
 import io.Output;
+import io.RecordBoundaryScanner;
 import io.Validator;
+import io.ValueDictionary;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import runner.Config;
@@ -13,12 +14,11 @@ import structures.*;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * @noinspection UnstableApiUsage
@@ -30,9 +30,15 @@ public class Spind {
     private final Logger logger;
     private final Output output;
     private final Clock clock;
+    private final Scheduler scheduler;
     RelationMetadata[] relationMetadata;
     int layer;
-    private BloomFilter<Integer> filter;
+    // masks the values of the next layer, which can not change any candidate, null until the first layer has been validated or if no filter is used
+    private ValueFilter filter;
+    // assigns the global value ids, exists from the validation of the first layer until the cached columns have been assigned their ids in the second layer
+    private ValueDictionary dictionary;
+    // shared by all sort jobs, null if the sorters spill after a fixed number of entries
+    private final MemoryBudget memoryBudget;
 
     public Spind(Config config) {
         this.clock = new Clock();
@@ -43,12 +49,16 @@ public class Spind {
         maxNary = config.maxNary;
         this.output = new Output(config.resultFolder);
         this.logger = LoggerFactory.getLogger(Spind.class);
-        if (config.useFilter) this.filter = BloomFilter.create(Funnels.integerFunnel(), 100_000_000, 0.05);
+        this.scheduler = new Scheduler(config.PARALLEL);
+        this.memoryBudget = config.adaptiveSpilling ? MemoryBudget.of(config) : null;
     }
 
     public void execute() throws IOException, InterruptedException, CsvValidationException {
 
         logger.info("Starting execution");
+        // the compression counters are shared by all executions of the JVM
+        long rawBytesBefore = BlockCompression.rawBytes();
+        long storedBytesBefore = BlockCompression.storedBytes();
 
         clock.start("init");
         this.relationMetadata = initializeRelations();
@@ -68,6 +78,12 @@ public class Spind {
 
             // create sort jobs
             attachAttributes(attributes);
+            if (layer > 1 && config.columnarCache) {
+                // the cached columns, which are not needed anymore, are never read again
+                for (RelationMetadata relation : relationMetadata) {
+                    relation.dropUnusedColumns();
+                }
+            }
             List<SortJob> sortJobs = createSortJobs();
 
             int numAttributes = attributes.length;
@@ -78,19 +94,57 @@ public class Spind {
             logger.info("Starting layer: " + layer + " with " + numAttributes + " attributes forming " + numCandidates + " candidates");
             // candidates.current.get(x).size()).sum() + " candidates");
             // 3.1) Load all attributes of the candidates.
+            // the unique values are needed before the validation in UNAWARE mode. They are only known once every relation has been fully merged.
+            boolean pipelined = config.pipelineValidation && config.duplicateHandling == Config.DuplicateHandling.AWARE;
+
             clock.start("sorting");
-            ExecutorService executors = Executors.newFixedThreadPool(config.PARALLEL);
-            List<SortResult> sortResults = executors.invokeAll(sortJobs.stream().sorted().toList()).stream().map(sortResultFuture -> {
+            long maskedBefore = filter == null ? 0L : filter.masked();
+            List<SortJob> orderedJobs = sortJobs.stream().sorted().toList();
+            List<CompletableFuture<SortResult>> sortTasks = orderedJobs.stream().map(scheduler::submit).toList();
+
+            // the sorted runs of every relation are merged as soon as there are enough of them, while the remaining chunks are still being sorted
+            Attribute[] layerAttributes = attributes;
+            Map<Integer, CompletableFuture<List<Path>>> mergeTasks = new LinkedHashMap<>();
+            for (RelationMetadata relation : relationMetadata) {
+                List<CompletableFuture<SortResult>> relationSortTasks = new ArrayList<>();
+                for (int i = 0; i < orderedJobs.size(); i++) {
+                    if (orderedJobs.get(i).relationId() == relation.id) relationSortTasks.add(sortTasks.get(i));
+                }
+                if (relationSortTasks.isEmpty()) continue;
+                RelationMerge relationMerge = new RelationMerge(config, scheduler, metrics, layerAttributes, relation.id, relationSortTasks.size(), pipelined);
+                for (CompletableFuture<SortResult> sortTask : relationSortTasks) {
+                    sortTask.whenComplete((sortResult, exception) -> {
+                        if (exception != null) relationMerge.sortFailed(exception);
+                        else if (sortResult == null) relationMerge.sortFailed(new IOException("A sort job of relation " + relation.id + " failed"));
+                        else relationMerge.sorted(sortResult.mergeJob().chunkPaths());
+                    });
+                }
+                mergeTasks.put(relation.id, relationMerge.result());
+            }
+
+            // a failed sort job fails the merge of its relation, which is reported once all merges have finished
+            List<SortResult> sortResults = sortTasks.stream().map(sortTask -> {
                 try {
-                    return sortResultFuture.get();
-                } catch (InterruptedException | ExecutionException e) {
-                    e.printStackTrace();
-                    return new SortResult(null, null);
+                    return sortTask.join();
+                } catch (CompletionException e) {
+                    return null;
                 }
-            }).toList();
-            executors.shutdown();
+            }).filter(Objects::nonNull).toList();
 
             logger.info("Finished sorting. Took: " + clock.stop("sorting") + "ms");
+            long maskedValues = filter == null ? 0L : filter.masked() - maskedBefore;
+            double filterFpr = filter == null ? 0.0 : filter.falsePositiveRate();
+            metrics.layerMaskedValues.add(maskedValues);
+            metrics.layerFilterFpr.add(filterFpr);
+            if (filter != null) {
+                logger.info("The value filter masked " + maskedValues + " values with an estimated false positive rate of " + filterFpr);
+            }
+
+            if (layer > 1 && dictionary != null) {
+                // every cached column, which is still needed, has been assigned its ids
+                dictionary.delete();
+                dictionary = null;
+            }
 
             metrics.sortFiles += sortResults.stream().mapToInt(sortResult -> sortResult.mergeJob().chunkPaths().size()).sum();
 
@@ -99,21 +153,42 @@ public class Spind {
                 for (Attribute sortAttribute : sortResult.connectedAttributes()) {
                     attributes[sortAttribute.getId()].getMetadata().globalUnique += sortAttribute.getMetadata().globalUnique;
                     attributes[sortAttribute.getId()].getMetadata().nullEntries += sortAttribute.getMetadata().nullEntries;
+                    attributes[sortAttribute.getId()].getMetadata().totalValues += sortAttribute.getMetadata().totalValues;
                     totalSaved += sortAttribute.getMetadata().globalUnique;
                 }
             }
             logger.info("In total " + totalSaved + " occurrences where skipped due to global uniqueness");
 
-            List<MergeJob> mergeJobs = sortResults.stream().map(SortResult::mergeJob).toList();
-
+            // the merging time only covers the merges, which are still running once all chunks are sorted
             clock.start("merging");
-            int activeRelations = iterativeMerge(attributes, mergeJobs);
+            Map<Integer, List<Path>> validationFiles = new LinkedHashMap<>();
+            IOException mergeFailure = null;
+            for (Map.Entry<Integer, CompletableFuture<List<Path>>> mergeTask : mergeTasks.entrySet()) {
+                try {
+                    validationFiles.put(mergeTask.getKey(), mergeTask.getValue().join());
+                } catch (CompletionException e) {
+                    // the merges of the other relations are awaited, so that none of them is still running once the execution fails
+                    if (mergeFailure == null) mergeFailure = new IOException("Sorting or merging relation " + mergeTask.getKey() + " failed", e.getCause());
+                }
+            }
+            if (mergeFailure != null) {
+                // validating without the values of the relation would report false pINDs
+                throw mergeFailure;
+            }
+            int numValidationFiles = validationFiles.values().stream().mapToInt(List::size).sum();
             logger.info("Finished merging. Took: " + clock.stop("merging") + "ms");
 
             // 3.2) Validate candidates.
             clock.start("validation");
-            Validator validator = new Validator(config, candidates, config.VALIDATION_SIZE / activeRelations);
-            filter = validator.validate(layer, filter);
+            Validator validator = new Validator(config, candidates, validationFiles, Math.max(1, config.VALIDATION_SIZE / Math.max(1, numValidationFiles)), pipelined);
+            if (layer == 1 && ValueDictionary.enabled(config)) {
+                dictionary = new ValueDictionary(Path.of(config.tempFolder + File.separator + "dictionary.bin"));
+                validator.collectValues(dictionary);
+            }
+            filter = scheduler.run(() -> validator.validate(layer, filter));
+            if (layer == 1 && dictionary != null) {
+                dictionary.finish();
+            }
 
             // remove all dependant candidates, that do not reference any attribute
             candidates.cleanCandidates();
@@ -128,76 +203,35 @@ public class Spind {
             output.storePINDs(relationMetadata, attributes, layer, config);
 
             // clean relation files
-            for (RelationMetadata relation : relationMetadata) {
-                Path relationFile = Path.of(config.tempFolder + File.separator + "relation_" + relation.id + ".txt");
-                if (Files.exists(relationFile)) Files.delete(relationFile);
+            for (List<Path> relationFiles : validationFiles.values()) {
+                for (Path validationFile : relationFiles) {
+                    BlockSummary.delete(validationFile);
+                }
             }
 
             if (maxNary > 0 && layer == maxNary) break;
 
             // 3.4) Generate new attributes for next layer.
             clock.start("generateNext");
-            attributes = candidates.generateNextLayer(attributes, relationMetadata, layer);
+            attributes = scheduler.run(() -> candidates.generateNextLayer(layerAttributes, relationMetadata, layer));
             logger.info("Finished generating next layer. Took: " + clock.stop("generateNext") + "ms");
         }
+        if (dictionary != null) {
+            dictionary.delete();
+        }
         // clean up temp
         Arrays.stream(Objects.requireNonNull((new File(config.tempFolder)).listFiles())).forEach(File::delete);
 
-        // 4) Save the output
-        output.storeMetadata(config, clock, metrics);
-    }
-
-    private int iterativeMerge(Attribute[] attributes, List<MergeJob> mergeJobs) {
-        int activeRelations = 1;
-        int merge = Math.max(2, config.MERGE_SIZE / config.PARALLEL); // we need to always merge at least two files
-        while (!mergeJobs.isEmpty()) {
-            // 1) group by relation
-            List<MergeJob> groupedMergeJobs = new ArrayList<>();
-            for (int i = 0; i < relationMetadata.length; i++) {
-                groupedMergeJobs.add(new MergeJob(new ArrayList<>(), i, null, false));
-            }
-            for (MergeJob mergeJob : mergeJobs) {
-                groupedMergeJobs.get(mergeJob.relationId()).chunkPaths().addAll(mergeJob.chunkPaths());
-            }
-
-            // split jobs and save next parts
-            List<MergeJob> nextJobs = new ArrayList<>();
-            List<MergeJob> currentJobs = new ArrayList<>();
-
-            for (MergeJob job : groupedMergeJobs) {
-                if (job.chunkPaths().isEmpty()) {
-                    continue;
-                }
-                int n = job.chunkPaths().size();
-                if (n >= merge) {
-                    // Case 1: The number of files exceeds the merge size threshold -> Merge subsets of the spilled files and re-add then to the next iteration
-                    List<Path> nextPaths = new ArrayList<>();
-                    for (int i = 0; i < n; i += merge) {
-                        Path resultPath = Path.of(job.chunkPaths().get(i) + "_m_" + i + ".txt");
-                        currentJobs.add(new MergeJob(new ArrayList<>(job.chunkPaths().subList(i, Math.min(i + merge, n))), job.relationId(), resultPath, false));
-                        nextPaths.add(resultPath);
-                    }
-                    nextJobs.add(new MergeJob(nextPaths, job.relationId(), null, false));
-                } else {
-                    // Case 2: The number of files does not exceed the threshold -> the next merge finishes the relation file.
-                    activeRelations++;
-                    Path resultPath = Path.of(config.tempFolder + File.separator + "relation_" + job.relationId() + ".txt");
-                    currentJobs.add(new MergeJob(job.chunkPaths(), job.relationId(), resultPath, true));
-                }
-            }
-
-            metrics.mergeFiles += currentJobs.size();
+        scheduler.shutdown();
 
-            currentJobs.parallelStream().forEach(mergeJob -> {
-                if (mergeJob.chunkPaths().isEmpty()) {
-                    return;
-                }
-                Merger merger = new Merger();
-                merger.merge(mergeJob.chunkPaths(), mergeJob.to(), attributes, mergeJob.isFinal());
-            });
-            mergeJobs = nextJobs;
+        metrics.tempBytes = BlockCompression.rawBytes() - rawBytesBefore;
+        metrics.storedTempBytes = BlockCompression.storedBytes() - storedBytesBefore;
+        if (config.compressTempFiles) {
+            logger.info("Compressed " + metrics.tempBytes + " bytes of temp files to " + metrics.storedTempBytes + " bytes");
         }
-        return activeRelations;
+
+        // 4) Save the output
+        output.storeMetadata(config, clock, metrics);
     }
 
     private int calcPINDs(Attribute[] attributes) {
@@ -219,20 +253,30 @@ public class Spind {
                     Path.of(config.folderPath + File.separator + config.databaseName + File.separator + config.tableNames[relationId] + config.fileEnding), config);
             relationOffset += relationMetadata[relationId].columnNames.length;
         }
+        // the chunk size is needed to cut the relations into chunks
+        if (config.autoTune) {
+            metrics.tuning = new Planner(config).plan(relationMetadata);
+        }
 
         clock.start("chunking");
         logger.info("Stating chunking");
 
-        ExecutorService executors = Executors.newFixedThreadPool(config.PARALLEL);
-        executors.invokeAll(Arrays.stream(relationMetadata).sorted().toList()).forEach(relation -> {
-
+        // find the record boundaries of all relations, large relations are scanned in several segments at once
+        List<RecordBoundaryScanner> boundaryScans = new ArrayList<>();
+        for (RelationMetadata relation : relationMetadata) {
+            boundaryScans.addAll(relation.createBoundaryScans());
+        }
+        scheduler.invokeAll(boundaryScans).forEach(scan -> {
             try {
-                relation.get();
+                scan.get();
             } catch (ExecutionException | InterruptedException e) {
                 e.printStackTrace();
             }
         });
-        executors.shutdown();
+
+        for (RelationMetadata relation : relationMetadata) {
+            relation.createChunks();
+        }
 
         logger.info("Finished chunking. Took: " + clock.stop("chunking"));
 
@@ -259,6 +303,8 @@ public class Spind {
         }
         for (Attribute attribute : attributes) {
             relationMetadata[attribute.getRelationId()].connectedAttributes.add(attribute);
+            // the sort jobs merge the sketches of their chunks into the sketch of the attribute
+            if (config.sketchPruning) attribute.setSketch(new ValueSketch());
         }
         for (RelationMetadata relation : relationMetadata) {
             relation.connectedAttributes = Collections.unmodifiableList(relation.connectedAttributes);
@@ -272,8 +318,8 @@ public class Spind {
             if (relation.connectedAttributes.isEmpty()) {
                 continue;
             }
-            for (Path chunkPath : relation.chunks) {
-                jobs.add(new SortJob(chunkPath, relation.connectedAttributes, relation.id, config.SORT_SIZE / config.PARALLEL, config.CHUNK_SIZE, config, filter, layer));
+            for (Chunk chunk : relation.chunks) {
+                jobs.add(new SortJob(chunk, relation.connectedAttributes, relation.id, config.SORT_SIZE / config.PARALLEL, config.CHUNK_SIZE, config, filter, layer, dictionary, memoryBudget));
             }
         }
 
@@ -0,0 +1,347 @@
+package io;
+
+import runner.Config;
+
+import java.io.BufferedInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Optional compression of the temporary files (see {@link Config#compressTempFiles}). A compressed file is a sequence of independently compressed blocks of
+ * {@link Config#compressionBlockSize} bytes, each stored as [int uncompressed length][int stored length][stored bytes]. If a block can not be made smaller, it is stored as it is,
+ * which is the case, if both lengths are equal.
+ * <p>
+ * The blocks are compressed with a byte oriented LZ77 scheme in the style of LZ4, which needs no native library: A block is a sequence of literal runs, each followed by a match
+ * that copies earlier bytes of the block. Every sequence starts with a token, whose high nibble holds the number of literals and whose low nibble holds the match length minus
+ * {@link #MIN_MATCH}. A nibble of 15 is followed by further length bytes, which are added up until a byte is smaller than 255. The match is given by a two byte offset. The last
+ * sequence of a block only consists of literals.
+ * <p>
+ * Compressed files can only be read sequentially, which is why they are never memory-mapped.
+ */
+public final class BlockCompression {
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_LOG = 14;
+    // the number of bytes, that have been written to compressed files, before and after the compression
+    private static final LongAdder rawBytes = new LongAdder();
+    private static final LongAdder storedBytes = new LongAdder();
+
+    private BlockCompression() {
+    }
+
+    public static OutputStream output(Path path, Config config) throws IOException {
+        OutputStream output = Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        return config.compressTempFiles ? new CompressedOutputStream(output, config.compressionBlockSize) : output;
+    }
+
+    public static InputStream input(Path path, Config config) throws IOException {
+        InputStream input = Files.newInputStream(path);
+        return config.compressTempFiles ? new CompressedInputStream(new BufferedInputStream(input, 1 << 16)) : input;
+    }
+
+    public static void write(Path path, byte[] bytes, Config config) throws IOException {
+        try (OutputStream output = output(path, config)) {
+            output.write(bytes);
+        }
+    }
+
+    public static byte[] readAllBytes(Path path, Config config) throws IOException {
+        try (InputStream input = input(path, config)) {
+            return input.readAllBytes();
+        }
+    }
+
+    /**
+     * @return the number of bytes, which have been written to compressed files so far, before the compression.
+     */
+    public static long rawBytes() {
+        return rawBytes.sum();
+    }
+
+    /**
+     * @return the number of bytes, which have been written to compressed files so far, after the compression.
+     */
+    public static long storedBytes() {
+        return storedBytes.sum();
+    }
+
+    /**
+     * @return the maximal size of a compressed block of the given length.
+     */
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses source[0, length) into the target, which needs to hold at least {@link #maxCompressedLength(int)} bytes.
+     *
+     * @param table a scratch table of 2^HASH_LOG entries
+     * @return the compressed length.
+     */
+    static int compress(byte[] source, int length, byte[] target, int[] table) {
+        Arrays.fill(table, -1);
+        int in = 0;
+        int anchor = 0;
+        int out = 0;
+        while (in + MIN_MATCH <= length) {
+            int sequence = readInt(source, in);
+            int hash = (sequence * -1640531535) >>> (32 - HASH_LOG);
+            int reference = table[hash];
+            table[hash] = in;
+            if (reference < 0 || in - reference > MAX_OFFSET || readInt(source, reference) != sequence) {
+                in++;
+                continue;
+            }
+            int matchEnd = in + MIN_MATCH;
+            int referenceEnd = reference + MIN_MATCH;
+            while (matchEnd < length && source[matchEnd] == source[referenceEnd]) {
+                matchEnd++;
+                referenceEnd++;
+            }
+            out = writeSequence(source, anchor, in - anchor, target, out, matchEnd - in - MIN_MATCH);
+            target[out++] = (byte) (in - reference);
+            target[out++] = (byte) ((in - reference) >>> 8);
+            in = matchEnd;
+            anchor = in;
+        }
+        // the remaining bytes are literals
+        return writeSequence(source, anchor, length - anchor, target, out, 0);
+    }
+
+    private static int writeSequence(byte[] source, int literalStart, int literals, byte[] target, int out, int matchLength) {
+        int tokenPosition = out++;
+        int token = (Math.min(literals, 15) << 4) | Math.min(matchLength, 15);
+        target[tokenPosition] = (byte) token;
+        if (literals >= 15) out = writeLength(target, out, literals - 15);
+        System.arraycopy(source, literalStart, target, out, literals);
+        out += literals;
+        if (matchLength >= 15) out = writeLength(target, out, matchLength - 15);
+        return out;
+    }
+
+    private static int writeLength(byte[] target, int out, int length) {
+        while (length >= 255) {
+            target[out++] = (byte) 255;
+            length -= 255;
+        }
+        target[out++] = (byte) length;
+        return out;
+    }
+
+    /**
+     * Decompresses source[0, length) into target[0, uncompressedLength).
+     */
+    static void decompress(byte[] source, int length, byte[] target, int uncompressedLength) throws IOException {
+        int in = 0;
+        int out = 0;
+        while (in < length) {
+            int token = source[in++] & 0xFF;
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int b;
+                do {
+                    b = source[in++] & 0xFF;
+                    literals += b;
+                } while (b == 255);
+            }
+            System.arraycopy(source, in, target, out, literals);
+            in += literals;
+            out += literals;
+            if (out == uncompressedLength) break;
+
+            int matchLength = token & 0x0F;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    b = source[in++] & 0xFF;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            int offset = (source[in] & 0xFF) | ((source[in + 1] & 0xFF) << 8);
+            in += 2;
+            if (offset == 0 || offset > out || out + matchLength > uncompressedLength) throw new IOException("Corrupt compressed block");
+            // the match may overlap the bytes it produces, which is why it is copied byte by byte
+            for (int i = 0; i < matchLength; i++, out++) {
+                target[out] = target[out - offset];
+            }
+        }
+        if (out != uncompressedLength) throw new IOException("Corrupt compressed block");
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8 | (bytes[offset + 2] & 0xFF) << 16 | (bytes[offset + 3] & 0xFF) << 24;
+    }
+
+    private static void writeInt(OutputStream output, int value) throws IOException {
+        output.write(value >>> 24);
+        output.write(value >>> 16);
+        output.write(value >>> 8);
+        output.write(value);
+    }
+
+    /**
+     * Collects the written bytes into blocks and writes every block compressed.
+     */
+    private static final class CompressedOutputStream extends FilterOutputStream {
+        private final byte[] block;
+        private final byte[] compressed;
+        private final int[] table = new int[1 << HASH_LOG];
+        private int length;
+
+        private CompressedOutputStream(OutputStream output, int blockSize) {
+            super(output);
+            this.block = new byte[blockSize];
+            this.compressed = new byte[maxCompressedLength(blockSize)];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (length == block.length) writeBlock();
+            block[length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int count) throws IOException {
+            while (count > 0) {
+                if (length == block.length) writeBlock();
+                int n = Math.min(count, block.length - length);
+                System.arraycopy(bytes, offset, block, length, n);
+                length += n;
+                offset += n;
+                count -= n;
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            if (length == 0) return;
+            int compressedLength = compress(block, length, compressed, table);
+            writeInt(out, length);
+            if (compressedLength < length) {
+                writeInt(out, compressedLength);
+                out.write(compressed, 0, compressedLength);
+            } else {
+                compressedLength = length;
+                writeInt(out, length);
+                out.write(block, 0, length);
+            }
+            rawBytes.add(length);
+            storedBytes.add(compressedLength + 2L * Integer.BYTES);
+            length = 0;
+        }
+
+        /**
+         * A block is only written once it is full or the stream is closed, flushing the stream does not cut the current block.
+         */
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            writeBlock();
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a compressed file block by block. Blocks, which are skipped completely, are not decompressed.
+     */
+    private static final class CompressedInputStream extends InputStream {
+        private final InputStream input;
+        private byte[] block = new byte[0];
+        private byte[] compressed = new byte[0];
+        private int position;
+        private int limit;
+        // the lengths of the next block, whose header has been read already. -1 if there is none.
+        private int nextLength = -1;
+        private int nextStoredLength;
+
+        private CompressedInputStream(InputStream input) {
+            this.input = input;
+        }
+
+        /**
+         * @return false if the end of the file has been reached.
+         */
+        private boolean readHeader() throws IOException {
+            if (nextLength >= 0) return true;
+            byte[] header = input.readNBytes(2 * Integer.BYTES);
+            if (header.length == 0) return false;
+            if (header.length < 2 * Integer.BYTES) throw new IOException("Unexpected end of compressed file");
+            nextLength = (header[0] & 0xFF) << 24 | (header[1] & 0xFF) << 16 | (header[2] & 0xFF) << 8 | (header[3] & 0xFF);
+            nextStoredLength = (header[4] & 0xFF) << 24 | (header[5] & 0xFF) << 16 | (header[6] & 0xFF) << 8 | (header[7] & 0xFF);
+            return true;
+        }
+
+        /**
+         * @return false if the end of the file has been reached.
+         */
+        private boolean nextBlock() throws IOException {
+            if (!readHeader()) return false;
+            if (block.length < nextLength) block = new byte[nextLength];
+            if (nextStoredLength == nextLength) {
+                if (input.readNBytes(block, 0, nextLength) < nextLength) throw new IOException("Unexpected end of compressed file");
+            } else {
+                if (compressed.length < nextStoredLength) compressed = new byte[nextStoredLength];
+                if (input.readNBytes(compressed, 0, nextStoredLength) < nextStoredLength) throw new IOException("Unexpected end of compressed file");
+                decompress(compressed, nextStoredLength, block, nextLength);
+            }
+            position = 0;
+            limit = nextLength;
+            nextLength = -1;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == limit && !nextBlock()) return -1;
+            return block[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int count) throws IOException {
+            if (count == 0) return 0;
+            if (position == limit && !nextBlock()) return -1;
+            int n = Math.min(count, limit - position);
+            System.arraycopy(block, position, bytes, offset, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = 0L;
+            while (skipped < count) {
+                if (position == limit) {
+                    if (!readHeader()) break;
+                    if (count - skipped >= nextLength) {
+                        // the whole block is skipped without decompressing it
+                        input.skipNBytes(nextStoredLength);
+                        skipped += nextLength;
+                        nextLength = -1;
+                        continue;
+                    }
+                    nextBlock();
+                }
+                int n = (int) Math.min(count - skipped, limit - position);
+                position += n;
+                skipped += n;
+            }
+            return skipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * A block summary lists the attributes, which occur in the blocks of a record file. A block is a sequence of whole records of about {@link #BLOCK_SIZE} bytes. The summary is
+ * written next to the record file, see {@link #path(Path)}, and consists of one entry per block: [varint block length in bytes][varint number of attributes]([varint attribute
+ * id difference])*. The attribute ids of a block are sorted and every id is stored as the difference to the previous one.
+ * <p>
+ * During the validation, a block can be skipped without reading it, if none of its attributes is relevant anymore. Skipping a block, that only holds referenced attributes,
+ * would be wrong: Its values are needed to tell whether the values of the dependant attributes in the other files are referenced.
+ */
+public class BlockSummary {
+    public static final int BLOCK_SIZE = 1 << 16;
+    // the byte offset of block b is starts[b], the block ends at starts[b + 1]
+    private final long[] starts;
+    // the attributes of block b are ids[idStarts[b], idStarts[b + 1])
+    private final int[] idStarts;
+    private final int[] ids;
+    private int block;
+
+    private BlockSummary(long[] starts, int[] idStarts, int[] ids) {
+        this.starts = starts;
+        this.idStarts = idStarts;
+        this.ids = ids;
+    }
+
+    public static Path path(Path recordFile) {
+        return Path.of(recordFile + ".blocks");
+    }
+
+    /**
+     * Reads the summary of a record file.
+     *
+     * @return null if the record file has no summary.
+     */
+    public static BlockSummary read(Path recordFile) throws IOException {
+        Path path = path(recordFile);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        long[] starts = new long[17];
+        int[] idStarts = new int[17];
+        int[] ids = new int[64];
+        int blocks = 0;
+        try (InputStream input = new BufferedInputStream(Files.newInputStream(path), 1 << 16)) {
+            long length;
+            while ((length = readVarint(input)) >= 0) {
+                if (blocks + 2 > starts.length) {
+                    starts = Arrays.copyOf(starts, 2 * starts.length);
+                    idStarts = Arrays.copyOf(idStarts, 2 * idStarts.length);
+                }
+                int count = (int) readVarint(input);
+                int idLength = idStarts[blocks];
+                if (idLength + count > ids.length) ids = Arrays.copyOf(ids, Math.max(2 * ids.length, idLength + count));
+                int id = 0;
+                for (int i = 0; i < count; i++) {
+                    id += (int) readVarint(input);
+                    ids[idLength + i] = id;
+                }
+                starts[blocks + 1] = starts[blocks] + length;
+                idStarts[blocks + 1] = idLength + count;
+                blocks++;
+            }
+        }
+        return new BlockSummary(Arrays.copyOf(starts, blocks + 1), Arrays.copyOf(idStarts, blocks + 1), ids);
+    }
+
+    /**
+     * Deletes a record file together with its summary.
+     */
+    public static void delete(Path recordFile) throws IOException {
+        Files.deleteIfExists(recordFile);
+        Files.deleteIfExists(path(recordFile));
+    }
+
+    /**
+     * Finds the blocks, which can be skipped at the given position of the record file. The positions need to be asked for in ascending order.
+     *
+     * @param position the byte offset of the next record, which would be read
+     * @param relevant tells whether an attribute is still relevant
+     * @return the number of bytes to skip, 0 if the position is not the start of a block or the block holds a relevant attribute.
+     */
+    public long skippable(long position, IntPredicate relevant) {
+        while (block + 1 < starts.length && starts[block] < position) {
+            block++;
+        }
+        if (block + 1 >= starts.length || starts[block] != position) {
+            return 0L;
+        }
+        while (block + 1 < starts.length && !containsRelevant(block, relevant)) {
+            block++;
+        }
+        return starts[block] - position;
+    }
+
+    private boolean containsRelevant(int block, IntPredicate relevant) {
+        for (int i = idStarts[block]; i < idStarts[block + 1]; i++) {
+            if (relevant.test(ids[i])) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the next varint or -1 if the input ended.
+     */
+    private static long readVarint(InputStream input) throws IOException {
+        long result = 0L;
+        int shift = 0;
+        int b;
+        do {
+            b = input.read();
+            if (b < 0) {
+                if (shift == 0) return -1L;
+                throw new IOException("Unexpected end of block summary");
+            }
+            result |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return result;
+    }
+
+    /**
+     * Collects the attributes of the records, which are written to a record file, and writes one entry per block.
+     */
+    static class Writer {
+        private final OutputStream output;
+        private long blockStart;
+        private int[] blockIds = new int[64];
+        private int blockIdCount;
+
+        Writer(Path recordFile) throws IOException {
+            this.output = new BufferedOutputStream(Files.newOutputStream(path(recordFile), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING), 1 << 12);
+        }
+
+        /**
+         * Called before a record is written.
+         *
+         * @param position the byte offset of the record in the record file
+         */
+        void startRecord(long position) throws IOException {
+            if (position - blockStart >= BLOCK_SIZE) {
+                finishBlock(position);
+            }
+        }
+
+        void add(int attributeId) {
+            if (blockIdCount == blockIds.length) blockIds = Arrays.copyOf(blockIds, 2 * blockIds.length);
+            blockIds[blockIdCount++] = attributeId;
+        }
+
+        private void finishBlock(long position) throws IOException {
+            Arrays.sort(blockIds, 0, blockIdCount);
+            int distinct = 0;
+            for (int i = 0; i < blockIdCount; i++) {
+                if (distinct == 0 || blockIds[i] != blockIds[distinct - 1]) blockIds[distinct++] = blockIds[i];
+            }
+            writeVarint(position - blockStart);
+            writeVarint(distinct);
+            int previous = 0;
+            for (int i = 0; i < distinct; i++) {
+                writeVarint(blockIds[i] - previous);
+                previous = blockIds[i];
+            }
+            blockStart = position;
+            blockIdCount = 0;
+        }
+
+        private void writeVarint(long value) throws IOException {
+            while ((value & ~0x7FL) != 0L) {
+                output.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            output.write((int) value);
+        }
+
+        /**
+         * @param position the size of the record file
+         */
+        void close(long position) throws IOException {
+            if (position > blockStart) {
+                finishBlock(position);
+            }
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package io;
+
+import runner.Config;
+import structures.Chunk;
+import structures.MemoryBudget;
+import structures.ValueFilter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The column cache stores the columns of a chunk dictionary encoded, so that later layers do not need to parse the relation file again. It is written while the first layer is
+ * sorted, since this layer reads every column anyway. Every column of a chunk is kept in its own file, which allows later layers to only read the columns they need and to
+ * delete the columns that are no longer part of any attribute.
+ * <p>
+ * A column file consists of the number of rows, the dictionary and the codes of all rows. The dictionary holds every distinct value of the column in the chunk as UTF-8
+ * bytes, together with its length in chars, which is needed to build n-ary values, and its 64-bit value hash, which the value filter is queried with. The code 0 stands
+ * for null, all other codes are the position in the dictionary plus one. Codes use one, two or four bytes, depending on the size of the dictionary.
+ * <p>
+ * Once the values have global ids (see {@link ValueDictionary}), the dictionary only holds the id and the value hash of every entry.
+ * <p>
+ * Values are stored after the relation has been read, i.e. null strings are already replaced and line breaks are masked. The column files are compressed like all temporary
+ * files, see {@link BlockCompression}.
+ */
+public final class ColumnCache {
+    public static final int NULL = 0;
+    private static final byte VALUES = 0;
+    private static final byte IDS = 1;
+
+    private ColumnCache() {
+    }
+
+    /**
+     * Encodes the columns of a chunk while it is read. The dictionaries and codes of the whole chunk are kept until the writer is closed. Their estimated memory is acquired
+     * from the memory budget of the sorters as they grow, so that the sorters spill earlier instead of running out of memory together with the cache.
+     */
+    public static final class Writer {
+        // the estimated heap of a dictionary entry besides the chars of its value: the map node, the table slot, the boxed code, the String and its array and the list slot
+        private static final int BYTES_PER_ENTRY = 112;
+        private final Chunk chunk;
+        private final Config config;
+        private final MemoryBudget budget;
+        private final int[] columns;
+        private final List<HashMap<String, Integer>> dictionaries = new ArrayList<>();
+        private final List<List<String>> entries = new ArrayList<>();
+        private int[][] codes;
+        private int rows;
+        // the estimated bytes of the dictionaries and codes and the part of it, which has been acquired from the budget
+        private long footprint;
+        private long acquired;
+
+        /**
+         * @param columns the columns of the relation that are cached
+         * @param budget  the memory budget of the sorters, null if the sorters spill after a fixed number of entries
+         */
+        public Writer(Chunk chunk, int[] columns, Config config, MemoryBudget budget) {
+            this.chunk = chunk;
+            this.config = config;
+            this.budget = budget;
+            this.columns = columns;
+            this.codes = new int[columns.length][1 << 10];
+            for (int i = 0; i < columns.length; i++) {
+                dictionaries.add(new HashMap<>());
+                entries.add(new ArrayList<>());
+            }
+            account((long) Integer.BYTES * columns.length * codes[0].length);
+        }
+
+        public void add(String[] line) {
+            if (rows == codes[0].length) {
+                for (int i = 0; i < columns.length; i++) {
+                    codes[i] = Arrays.copyOf(codes[i], 2 * rows);
+                }
+                account((long) Integer.BYTES * columns.length * rows);
+            }
+            for (int i = 0; i < columns.length; i++) {
+                String value = line[columns[i]];
+                if (value == null) {
+                    codes[i][rows] = NULL;
+                    continue;
+                }
+                List<String> columnEntries = entries.get(i);
+                Integer code = dictionaries.get(i).putIfAbsent(value, columnEntries.size() + 1);
+                if (code == null) {
+                    columnEntries.add(value);
+                    code = columnEntries.size();
+                    account(BYTES_PER_ENTRY + 2L * value.length());
+                }
+                codes[i][rows] = code;
+            }
+            rows++;
+        }
+
+        private void account(long bytes) {
+            footprint += bytes;
+            if (budget != null && footprint > acquired) {
+                // acquiring in granules keeps the synchronization off the hot path
+                long grant = Math.max(budget.granule(), footprint - acquired);
+                budget.acquire(grant);
+                acquired += grant;
+            }
+        }
+
+        /**
+         * Writes one file per column and returns the memory of the cache to the budget.
+         */
+        public void close() throws IOException {
+            try {
+                write();
+            } finally {
+                codes = null;
+                dictionaries.clear();
+                entries.clear();
+                if (budget != null) budget.release(acquired);
+                acquired = 0L;
+            }
+        }
+
+        private void write() throws IOException {
+            for (int i = 0; i < columns.length; i++) {
+                List<byte[]> values = new ArrayList<>();
+                long size = 2 * Integer.BYTES + 2;
+                for (String value : entries.get(i)) {
+                    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                    values.add(bytes);
+                    size += 2 * Integer.BYTES + Long.BYTES + bytes.length;
+                }
+                int width = codeWidth(values.size());
+                size += (long) width * rows;
+
+                ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(size));
+                buffer.putInt(rows).putInt(values.size()).put(VALUES);
+                for (int entry = 0; entry < values.size(); entry++) {
+                    String value = entries.get(i).get(entry);
+                    byte[] bytes = values.get(entry);
+                    buffer.putInt(value.length()).putLong(RecordCodec.valueHash(bytes, 0, bytes.length)).putInt(bytes.length).put(bytes);
+                }
+                putCodes(buffer, codes[i], rows, width);
+                BlockCompression.write(chunk.columnPath(columns[i]), buffer.array(), config);
+            }
+        }
+    }
+
+    private static int codeWidth(int entries) {
+        // the code 0 is reserved for null
+        if (entries < 1 << 8) return 1;
+        if (entries < 1 << 16) return 2;
+        return Integer.BYTES;
+    }
+
+    private static void putCodes(ByteBuffer buffer, int[] codes, int rows, int width) {
+        buffer.put((byte) width);
+        for (int row = 0; row < rows; row++) {
+            switch (width) {
+                case 1 -> buffer.put((byte) codes[row]);
+                case 2 -> buffer.putShort((short) codes[row]);
+                default -> buffer.putInt(codes[row]);
+            }
+        }
+    }
+
+    /**
+     * A column of a chunk, which has been read from the cache.
+     */
+    public static final class Column {
+        public final int rows;
+        // codes[row]
+        public final int[] codes;
+        // the UTF-8 bytes of the dictionary entry with code c are values[offsets[c], offsets[c + 1]), null once the column has global ids
+        public byte[] values;
+        public int[] offsets;
+        public int[] charLengths;
+        // the global id of every entry, null until the ids have been assigned
+        public int[] ids;
+        public final long[] hashes;
+
+        private Column(int rows, int[] codes, long[] hashes) {
+            this.rows = rows;
+            this.codes = codes;
+            this.hashes = hashes;
+        }
+
+        public static Column read(Path path, Config config) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(BlockCompression.readAllBytes(path, config));
+            int rows = buffer.getInt();
+            int entries = buffer.getInt();
+            byte format = buffer.get();
+            long[] hashes = new long[entries + 1];
+            int[] ids = null;
+            int[] offsets = null;
+            int[] charLengths = null;
+            byte[] values = null;
+            if (format == IDS) {
+                ids = new int[entries + 1];
+                for (int code = 1; code <= entries; code++) {
+                    hashes[code] = buffer.getLong();
+                    ids[code] = buffer.getInt();
+                }
+            } else {
+                offsets = new int[entries + 2];
+                charLengths = new int[entries + 1];
+                values = new byte[buffer.remaining()];
+                int length = 0;
+                for (int code = 1; code <= entries; code++) {
+                    charLengths[code] = buffer.getInt();
+                    hashes[code] = buffer.getLong();
+                    int byteLength = buffer.getInt();
+                    buffer.get(values, length, byteLength);
+                    offsets[code] = length;
+                    length += byteLength;
+                    offsets[code + 1] = length;
+                }
+                values = Arrays.copyOf(values, length);
+            }
+            int width = buffer.get();
+            int[] codes = new int[rows];
+            for (int row = 0; row < rows; row++) {
+                codes[row] = switch (width) {
+                    case 1 -> buffer.get() & 0xFF;
+                    case 2 -> buffer.getShort() & 0xFFFF;
+                    default -> buffer.getInt();
+                };
+            }
+            Column column = new Column(rows, codes, hashes);
+            column.ids = ids;
+            column.offsets = offsets;
+            column.charLengths = charLengths;
+            column.values = values;
+            return column;
+        }
+
+        /**
+         * @return the number of dictionary entries.
+         */
+        public int entries() {
+            return hashes.length - 1;
+        }
+
+        /**
+         * Looks up the global id of every entry and replaces the cached column, which only keeps the ids and hashes from now on. This needs to happen before the column is
+         * masked.
+         */
+        public void assignIds(ValueDictionary dictionary, Path path, Config config) throws IOException {
+            ids = dictionary.ids(this);
+            values = null;
+            offsets = null;
+            charLengths = null;
+
+            int width = codeWidth(entries());
+            ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(2 * Integer.BYTES + 2 + (long) (Long.BYTES + Integer.BYTES) * entries() + (long) width * rows));
+            buffer.putInt(rows).putInt(entries()).put(IDS);
+            for (int code = 1; code <= entries(); code++) {
+                buffer.putLong(hashes[code]).putInt(ids[code]);
+            }
+            putCodes(buffer, codes, rows, width);
+            BlockCompression.write(path, buffer.array(), config);
+        }
+
+        /**
+         * Replaces the codes of all values, which are not contained in the filter, with null. The filter is checked once per dictionary entry instead of once per row.
+         */
+        public void mask(ValueFilter filter) {
+            boolean[] masked = new boolean[entries() + 1];
+            for (int code = 1; code <= entries(); code++) {
+                masked[code] = !filter.mightContain(hashes[code]);
+            }
+            long maskedRows = 0L;
+            for (int row = 0; row < rows; row++) {
+                if (masked[codes[row]]) {
+                    codes[row] = NULL;
+                    maskedRows++;
+                }
+            }
+            filter.addMasked(maskedRows);
+        }
+    }
+}
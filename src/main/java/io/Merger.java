@@ -1,25 +1,31 @@
 package io;
 
+import runner.Config;
 import structures.Attribute;
-import structures.Entry;
+import structures.LoserTree;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.PriorityQueue;
 
 /**
  * Class to handel file merging.
  */
 public class Merger {
-    private PriorityQueue<Entry> headValues;
-    private BufferedReader[] readers;
+    private final RecordCodec codec;
+    private LoserTree headValues;
+    private RecordCodec.Reader[] readers;
+    // the first record of the current value group as it was read (value followed by the serialized attributes)
+    private byte[] group = new byte[64];
+    private int groupValueLength;
+    private int groupLength;
+    private int groupSize;
+
+    public Merger(Config config) {
+        this.codec = new RecordCodec(config);
+    }
 
     /**
      * Attaches the readers and load the first value.
@@ -28,112 +34,123 @@ public class Merger {
      * @throws IOException if a files could not be found.
      */
     private void init(List<Path> files) throws IOException {
-        this.headValues = new PriorityQueue<>(files.size());
-        this.readers = new BufferedReader[files.size()];
+        this.readers = new RecordCodec.Reader[files.size()];
+        this.headValues = new LoserTree(files.size(), this::compareHeads);
 
         for (int index = 0; index < files.size(); ++index) {
-            BufferedReader reader = Files.newBufferedReader(files.get(index));
+            RecordCodec.Reader reader = codec.reader(files.get(index));
             this.readers[index] = reader;
-            String firstLine = reader.readLine();
-            if (firstLine != null) {
-                this.headValues.add(new Entry(firstLine, reader.readLine(), index));
+            if (reader.next()) {
+                headValues.setHead(index, LoserTree.prefix(reader.buffer(), 0, reader.valueLength()));
+            } else {
+                headValues.setExhausted(index);
             }
         }
-
+        headValues.build();
+        groupSize = 0;
     }
 
-    public void merge(List<Path> files, Path to, Attribute[] attributes, boolean isFinal) {
+    /**
+     * Merges the sorted runs into a single sorted file.
+     *
+     * @throws IOException if a run can not be read or the merged file can not be written. The merged file is incomplete in this case.
+     */
+    public void merge(List<Path> files, Path to, Attribute[] attributes, boolean isFinal) throws IOException {
         try {
             this.init(files);
 
-            BufferedWriter output = Files.newBufferedWriter(to, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-
-            if (headValues.isEmpty()) return;
-
-            Entry previous = headValues.poll();
-            updateHeadValues(previous);
-            HashMap<Integer, Long> containedAttributes = new HashMap<>();
-
-            while (!this.headValues.isEmpty()) {
-                Entry current = headValues.poll();
-                if (!previous.equals(current)) {
-                    // the previous value (group) is different -> safe value (group) to disk
-                    writeValue(containedAttributes, attributes, output, previous, isFinal);
-                    if (!containedAttributes.isEmpty()) containedAttributes = new HashMap<>();
-                } else {
-                    // the current value still belongs to the value group.
-                    // load previous and add to connected attributes
-                    previous.load(containedAttributes);
+            try (RecordCodec.Writer output = codec.writer(to)) {
+                HashMap<Integer, Long> containedAttributes = new HashMap<>();
+
+                int current;
+                while ((current = headValues.winner()) >= 0) {
+                    RecordCodec.Reader reader = readers[current];
+                    if (groupSize > 0 && Arrays.equals(group, 0, groupValueLength, reader.buffer(), 0, reader.valueLength())) {
+                        // the current value still belongs to the value group.
+                        if (groupSize == 1) {
+                            // load the first member once the group spans multiple files
+                            codec.decode(group, groupValueLength, groupLength - groupValueLength, containedAttributes);
+                        }
+                        codec.decode(reader.buffer(), reader.valueLength(), reader.recordLength() - reader.valueLength(), containedAttributes);
+                        groupSize++;
+                    } else {
+                        // the previous value (group) is different -> safe value (group) to disk
+                        if (groupSize > 0) {
+                            writeValue(containedAttributes, attributes, output, isFinal);
+                            if (!containedAttributes.isEmpty()) containedAttributes = new HashMap<>();
+                        }
+                        startGroup(reader);
+                    }
+
+                    updateHeadValues(reader);
+                }
+                if (groupSize > 0) {
+                    writeValue(containedAttributes, attributes, output, isFinal);
                 }
-                // update previous
-                previous = current;
-
-                updateHeadValues(current);
             }
-            writeValue(containedAttributes, attributes, output, previous, isFinal);
-            output.close();
-            closeReaders();
-            for (Path path : files) {
-                Files.delete(path);
+        } catch (IOException | RuntimeException e) {
+            // the readers of a failed merge are closed as well, without hiding the cause of the failure
+            try {
+                closeReaders();
+            } catch (IOException closeFailure) {
+                e.addSuppressed(closeFailure);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+            throw e;
+        }
+        closeReaders();
+        for (Path path : files) {
+            BlockSummary.delete(path);
         }
     }
 
     /**
-     * Updates the reader which is connected to the current entry.
+     * Moves the reader of the current winner to its next record.
      *
-     * @param current the entry which was last handled
-     * @throws IOException If the reader is unable to read the next two lines
+     * @param current the reader whose record was last handled
+     * @throws IOException If the reader is unable to read the next record
      */
-    private void updateHeadValues(Entry current) throws IOException {
-        int readerNumber = current.getReaderNumber();
-        String nextLine = this.readers[readerNumber].readLine();
+    private void updateHeadValues(RecordCodec.Reader current) throws IOException {
+        if (current.next()) {
+            headValues.advance(LoserTree.prefix(current.buffer(), 0, current.valueLength()));
+        } else {
+            headValues.exhaust();
+        }
+    }
 
-        if (nextLine != null) {
-            // if there is one more line, there have to be two more lines.
-            this.headValues.add(new Entry(nextLine, this.readers[readerNumber].readLine(), readerNumber));
+    /**
+     * Copies the current record of the reader, since the reader will overwrite it with the next record.
+     */
+    private void startGroup(RecordCodec.Reader reader) {
+        if (reader.recordLength() > group.length) {
+            group = new byte[Math.max(2 * group.length, reader.recordLength())];
         }
+        System.arraycopy(reader.buffer(), 0, group, 0, reader.recordLength());
+        groupValueLength = reader.valueLength();
+        groupLength = reader.recordLength();
+        groupSize = 1;
     }
 
-    private void writeValue(HashMap<Integer, Long> containedAttributes, Attribute[] attributes, BufferedWriter output, Entry previous, boolean isFinal) throws IOException {
-        output.write(previous.getValue());
-        output.newLine(); // delimiter between value and connected attributes
+    private int compareHeads(int a, int b) {
+        return RecordCodec.compare(readers[a].buffer(), 0, readers[a].valueLength(), readers[b].buffer(), 0, readers[b].valueLength());
+    }
 
-        // Case 1: There is only
-        if (containedAttributes.isEmpty()) {
-            output.write(previous.getSerializedAttributes());
+    private void writeValue(HashMap<Integer, Long> containedAttributes, Attribute[] attributes, RecordCodec.Writer output, boolean isFinal) throws IOException {
+        // Case 1: There is only a single file containing the value
+        if (groupSize == 1) {
+            output.write(group, groupValueLength, groupLength);
             if (isFinal) {
-                previous.load();
-                for (Integer attribute : previous.getConnectedAttributes().keySet()) {
-                    long occurrences = previous.getConnectedAttributes().get(attribute);
-                    attributes[attribute].getMetadata().totalValues += occurrences;
-                    attributes[attribute].getMetadata().uniqueValues++;
-                }
+                codec.decode(group, groupValueLength, groupLength - groupValueLength, (attribute, occurrences) -> attributes[attribute].getMetadata().uniqueValues++);
             }
         } else {
             // Case 2: there are multiple attributes from multiple files in the group
-            previous.load(containedAttributes); // add the last member
-            for (Map.Entry<Integer, Long> attribute : containedAttributes.entrySet()) {
-
-                writeAttribute(output, attribute.getKey(), attribute.getValue());
+            output.write(group, groupValueLength, containedAttributes);
 
-                if (isFinal) {
-                    attributes[attribute.getKey()].getMetadata().totalValues += attribute.getValue();
-                    attributes[attribute.getKey()].getMetadata().uniqueValues++;
+            if (isFinal) {
+                for (int attribute : containedAttributes.keySet()) {
+                    attributes[attribute].getMetadata().uniqueValues++;
                 }
             }
         }
-
-        output.newLine();
-    }
-
-    private void writeAttribute(BufferedWriter output, int key, long occurrences) throws IOException {
-        output.write(String.valueOf(key));
-        output.write(','); // attribute-occurrence separator
-        output.write(String.valueOf(occurrences));
-        output.write(';'); // attribute-attribute separator
     }
 
     /**
@@ -142,8 +159,17 @@ public class Merger {
      * @throws IOException If a file is locked and the reader therefore can not be closed.
      */
     private void closeReaders() throws IOException {
-        for (BufferedReader reader : readers) {
-            reader.close();
+        IOException failure = null;
+        for (RecordCodec.Reader reader : readers) {
+            // the readers after a run, which could not be opened, are missing
+            if (reader == null) continue;
+            try {
+                reader.close();
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+                else failure.addSuppressed(e);
+            }
         }
+        if (failure != null) throw failure;
     }
-}
\ No newline at end of file
+}
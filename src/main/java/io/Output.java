@@ -21,7 +21,7 @@ public class Output {
 
     private static double getPartialDegree(Config config, PINDList.PINDElement next) {
         long violations = next.getViolations();
-        long capViolations = next.violationCap;
+        long capViolations = next.getViolationCap();
 
         // the partial degree can be calculated using the threshold and the leftover violations
         double partialDegree = 1.0;
@@ -81,7 +81,7 @@ public class Output {
                 PINDList.PINDIterator pindIterator = attribute.getReferenced().elementIterator();
                 while (pindIterator.hasNext()) {
                     PINDList.PINDElement next = pindIterator.next();
-                    int referencedId = next.id;
+                    int referencedId = next.getId();
                     double partialDegree = getPartialDegree(config, next);
                     outputWriter.write("{\"partialDegree\":" + partialDegree + ",");
                     outputWriter.write("\"relation\":\"" + config.tableNames[attributes[referencedId].getRelationId()] + "\",");
@@ -123,7 +123,15 @@ public class Output {
     public void storeMetadata(Config config, Clock clock, Metrics metrics) throws IOException {
         BufferedWriter outputWriter = Files.newBufferedWriter(Path.of(this.resultFolder + File.separator + config.executionName + "_" + (System.currentTimeMillis() / 1000) + ".json"), StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE);
 
-        outputWriter.write("{" + "\"Dataset\":\"" + config.databaseName + '"' + ",\"threshold\":" + config.threshold + ",\"parallelism\":" + config.PARALLEL + ",\"max n-ary\":" + config.maxNary + ",\"relations\":" + config.tableNames.length + ",\"attributes\":" + metrics.layerAttributes.get(0) + ",\"unary\":" + metrics.unary + ",\"n-ary\":" + metrics.nary + ",\"attributes_per_layer\":" + metrics.layerAttributes + ",\"candidates_per_layer\":" + metrics.layerCandidates + ",\"pINDs_per_layer\":" + metrics.layerPINDs + ",\"CHUNK_SIZE\":" + config.CHUNK_SIZE + ",\"SORT_SIZE\":" + config.SORT_SIZE + ",\"MERGE_SIZE\":" + config.MERGE_SIZE + ",\"VALIDATION_SIZE\":" + config.VALIDATION_SIZE + ",\"total_time\":" + clock.stop("total") + ",\"sort_times\":" + clock.measures.get("sorting") + ",\"merge_times\":" + clock.measures.get("merging") + ",\"validate_times\":" + clock.measures.get("validation") + ",\"generate_times\":" + clock.measures.get("generateNext") + ",\"CHUNK_FILES\":" + metrics.chunkFiles + ",\"SORT_FILES\":" + metrics.sortFiles + ",\"MERGE_FILES\":" + metrics.mergeFiles + ",\"use_filter\":" + config.useFilter + ",\"refine_filter\":" + config.refineFilter + "}");
+        outputWriter.write("{" + "\"Dataset\":\"" + config.databaseName + '"' + ",\"threshold\":" + config.threshold + ",\"parallelism\":" + config.PARALLEL + ",\"max n-ary\":" + config.maxNary + ",\"relations\":" + config.tableNames.length + ",\"attributes\":" + metrics.layerAttributes.get(0) + ",\"unary\":" + metrics.unary + ",\"n-ary\":" + metrics.nary + ",\"attributes_per_layer\":" + metrics.layerAttributes + ",\"candidates_per_layer\":" + metrics.layerCandidates + ",\"pINDs_per_layer\":" + metrics.layerPINDs + ",\"CHUNK_SIZE\":" + config.CHUNK_SIZE + ",\"SORT_SIZE\":" + config.SORT_SIZE + ",\"MERGE_SIZE\":" + config.MERGE_SIZE + ",\"VALIDATION_SIZE\":" + config.VALIDATION_SIZE + ",\"total_time\":" + clock.stop("total") + ",\"sort_times\":" + clock.measures.get("sorting") + ",\"merge_times\":" + clock.measures.get("merging") + ",\"validate_times\":" + clock.measures.get("validation") + ",\"generate_times\":" + clock.measures.get("generateNext") + ",\"CHUNK_FILES\":" + metrics.chunkFiles + ",\"SORT_FILES\":" + metrics.sortFiles + ",\"MERGE_FILES\":" + metrics.mergeFiles + ",\"use_filter\":" + config.useFilter + ",\"refine_filter\":" + config.refineFilter + ",\"filter_bits_per_value\":" + config.filterBitsPerValue + ",\"filter_fpr_per_layer\":" + metrics.layerFilterFpr + ",\"masked_values_per_layer\":" + metrics.layerMaskedValues + ",\"compress_temp_files\":" + config.compressTempFiles + ",\"temp_bytes\":" + metrics.tempBytes + ",\"stored_temp_bytes\":" + metrics.storedTempBytes + ",\"compression_ratio\":" + (metrics.storedTempBytes == 0 ? 1.0 : (double) metrics.tempBytes / metrics.storedTempBytes) + (metrics.tuning == null ? "" : ",\"tuning\":" + tuningJson(metrics.tuning)) + "}");
         outputWriter.close();
     }
+
+    private static String tuningJson(TuningPlan plan) {
+        StringBuilder json = new StringBuilder("{\"sampled_records\":" + plan.sampledRecords + ",\"estimated_records\":" + plan.estimatedRecords + ",\"estimated_values\":" + plan.estimatedValues + ",\"estimated_distinct_values\":" + plan.estimatedDistinctValues + ",\"average_value_length\":" + plan.averageValueLength + ",\"max_memory\":" + plan.maxMemory + ",\"parallelism\":" + plan.parallelism);
+        for (String parameter : plan.values.keySet()) {
+            json.append(",\"").append(parameter).append("\":{\"value\":").append(plan.values.get(parameter)).append(",\"reason\":\"").append(plan.reasons.get(parameter).replace("\\", "\\\\").replace("\"", "\\\"")).append("\"}");
+        }
+        return json.append('}').toString();
+    }
 }
@@ -0,0 +1,193 @@
+package io;
+
+import runner.Config;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * The record boundary scanner finds the record boundaries of a segment of a relation file, at which the file is cut into chunks. Chunks are byte ranges, which are parsed
+ * independently of each other. A record ends at a line break outside of quotes. Whether a line break is quoted depends on everything before it, which is why a segment is scanned once for every state the
+ * parser might be in at the start of the segment. Since segments always start right after a line break, there are only three such states: outside a record, or inside a quoted
+ * field with the in-field flag of the parser either set or not. Once all segments have been scanned, the actual states are resolved from the start of the file, using the end
+ * state of every segment.
+ * <p>
+ * A chunk is cut after every recordsPerChunk records, counted from the first record that starts in the segment. Empty and differing lines are counted as well, which is why
+ * the number of values in a chunk is only approximately bounded.
+ * <p>
+ * The state transitions mirror com.opencsv.CSVParser#parseLine, including escaped and doubled quotes and the in-field flag, which carries over to the next line of a
+ * multi-line record. Lines end at \n, \r and \r\n like in a BufferedReader. All special characters have to be ASCII, which guarantees that they never occur inside a multibyte
+ * UTF-8 character.
+ */
+public class RecordBoundaryScanner implements Callable<Void> {
+    public static final int OUTSIDE = 0;
+    public static final int IN_QUOTES = 1;
+    public static final int IN_FIELD = 2;
+    // the next byte is consumed by the current escape or quote character
+    private static final int SKIP = 4;
+    private static final int[] START_STATES = {OUTSIDE, IN_QUOTES, IN_QUOTES | IN_FIELD};
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    private final Path relationPath;
+    private final long start;
+    private final long end;
+    private final int separator;
+    private final int quoteChar;
+    private final int escape;
+    private final boolean strictQuotes;
+    private final int recordsPerChunk;
+    // the first segment of a file always starts outside a record
+    private final int lanes;
+    private final int[] endStates = new int[START_STATES.length];
+    private final long[] firstBoundaries = new long[START_STATES.length];
+    private final int[] records = new int[START_STATES.length];
+    private final List<List<Long>> chunkBoundaries = new ArrayList<>();
+
+    /**
+     * @param start the first byte of the segment, which needs to be the start of the file or follow a \n.
+     * @param end   the end of the segment (exclusive), which needs to be the end of the file or follow a \n.
+     * @param recordsPerChunk the number of records after which a new chunk starts
+     */
+    public RecordBoundaryScanner(Path relationPath, long start, long end, int recordsPerChunk, Config config) {
+        this.relationPath = relationPath;
+        this.start = start;
+        this.end = end;
+        this.separator = config.separator;
+        this.quoteChar = config.quoteChar;
+        this.escape = config.fileEscape;
+        this.strictQuotes = config.strictQuotes;
+        this.recordsPerChunk = recordsPerChunk;
+        this.lanes = start == 0 ? 1 : START_STATES.length;
+        for (int lane = 0; lane < START_STATES.length; lane++) {
+            chunkBoundaries.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * @return true if a relation file parsed with the given config can be split by scanning its bytes.
+     */
+    public static boolean supports(Config config) {
+        return config.separator < 0x80 && config.quoteChar < 0x80 && config.fileEscape < 0x80;
+    }
+
+    @Override
+    public Void call() throws IOException {
+        int[] states = START_STATES.clone();
+        for (int lane = 0; lane < lanes; lane++) {
+            // outside a record, the segment itself starts with a new record
+            firstBoundaries[lane] = states[lane] == OUTSIDE ? start : -1L;
+        }
+
+        try (FileChannel channel = FileChannel.open(relationPath, StandardOpenOption.READ)) {
+            // every block is read with one additional byte, since the parser looks ahead one character
+            ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE + 1);
+            byte[] block = buffer.array();
+            long position = start;
+            while (position < end) {
+                int length = (int) Math.min(BLOCK_SIZE, end - position);
+                int toRead = length + (position + length < channel.size() ? 1 : 0);
+                buffer.clear().limit(toRead);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0) break;
+                }
+                int read = buffer.position();
+                for (int lane = 0; lane < lanes; lane++) {
+                    states[lane] = scan(block, Math.min(length, read), read, position, states[lane], lane);
+                }
+                position += length;
+            }
+        }
+        System.arraycopy(states, 0, endStates, 0, states.length);
+        return null;
+    }
+
+    /**
+     * Runs the parser automaton over a block.
+     *
+     * @param length    the number of bytes to process
+     * @param available the number of bytes which are available for look ahead
+     * @param offset    the position of the block in the file
+     * @return the state after the block
+     */
+    private int scan(byte[] block, int length, int available, long offset, int state, int lane) {
+        boolean inQuotes = (state & IN_QUOTES) != 0;
+        boolean inField = (state & IN_FIELD) != 0;
+        boolean skip = (state & SKIP) != 0;
+        for (int i = 0; i < length; i++) {
+            if (skip) {
+                skip = false;
+                continue;
+            }
+            int c = block[i];
+            int next = i + 1 < available ? block[i + 1] : -1;
+            if (c == escape) {
+                if (!strictQuotes) inField = true;
+                skip = (inQuotes || inField) && (next == quoteChar || next == escape || next == separator);
+            } else if (c == quoteChar) {
+                if ((inQuotes || inField) && next == quoteChar) {
+                    skip = true; // an escaped quote
+                } else {
+                    inQuotes = !inQuotes;
+                }
+                inField = !inField;
+            } else if (c == separator && !inQuotes) {
+                inField = false;
+            } else if (c == '\n' || c == '\r') {
+                if (c == '\r' && next == '\n') continue; // \r\n is a single line break
+                if (!inQuotes) {
+                    inField = false;
+                    recordEnd(lane, offset + i + 1);
+                }
+            } else if (!strictQuotes || inQuotes) {
+                inField = true;
+            }
+        }
+        return (inQuotes ? IN_QUOTES : 0) | (inField ? IN_FIELD : 0) | (skip ? SKIP : 0);
+    }
+
+    private void recordEnd(int lane, long boundary) {
+        if (firstBoundaries[lane] < 0) {
+            firstBoundaries[lane] = boundary;
+        } else if (++records[lane] == recordsPerChunk) {
+            chunkBoundaries.get(lane).add(boundary);
+            records[lane] = 0;
+        }
+    }
+
+    private static int lane(int state) {
+        for (int lane = 0; lane < START_STATES.length; lane++) {
+            if (START_STATES[lane] == state) return lane;
+        }
+        throw new IllegalStateException("A segment can not start in state " + state);
+    }
+
+    /**
+     * @param state the state of the parser at the start of the segment
+     * @return the position of the first record in the segment or -1 if the segment only continues a record of a previous segment.
+     */
+    public long firstBoundary(int state) {
+        return firstBoundaries[lane(state)];
+    }
+
+    /**
+     * @param state the state of the parser at the start of the segment
+     * @return the positions after the first record boundary at which the segment is cut into chunks.
+     */
+    public List<Long> chunkBoundaries(int state) {
+        return chunkBoundaries.get(lane(state));
+    }
+
+    /**
+     * @param state the state of the parser at the start of the segment
+     * @return the state of the parser at the end of the segment, which is the state at the start of the next segment.
+     */
+    public int endState(int state) {
+        return endStates[lane(state)];
+    }
+}
@@ -0,0 +1,742 @@
+package io;
+
+import runner.Config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * The record codec handles every file which is exchanged between the Sorter, the Merger and the Validator. Each of these files is a sequence of records, which are ordered by
+ * their value. A record consists of the value and the serialized attributes, that is every attribute (combination) the value occurs in together with its number of occurrences.
+ * Two formats are supported:
+ * <p>
+ * BINARY: [varint value length][value bytes][varint number of attributes]([varint attribute id][varint occurrences])*
+ * <p>
+ * TEXT:   [value]\n[Id1,Occurrences1;Id2,Occurrences2;...]\n
+ * <p>
+ * The text format is human-readable and therefore only meant for debugging. In both formats values are compared by their UTF-8 bytes, which is why every sorted run has to be
+ * ordered using {@link #compare(byte[], byte[])}.
+ */
+public class RecordCodec {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private final Config config;
+    private final boolean binary;
+    private final boolean summarize;
+
+    public RecordCodec(Config config) {
+        this.config = config;
+        this.binary = config.spillFormat == Config.SpillFormat.BINARY;
+        this.summarize = config.blockSummaries;
+    }
+
+    /**
+     * Compares two values by their unsigned bytes. This is the order every record file is sorted in.
+     *
+     * @return a negative number if a is smaller than b, zero if they are equal and a positive number otherwise.
+     */
+    public static int compare(byte[] a, byte[] b) {
+        return Arrays.compareUnsigned(a, b);
+    }
+
+    public static int compare(byte[] a, int aOffset, int aLength, byte[] b, int bOffset, int bLength) {
+        return Arrays.compareUnsigned(a, aOffset, aOffset + aLength, b, bOffset, bOffset + bLength);
+    }
+
+    /**
+     * Compares two values, which are given as slices of (possibly memory-mapped) buffers, by their unsigned bytes without copying them. Eight bytes are compared at once, which
+     * requires both buffers to be in big endian order.
+     *
+     * @return a negative number if a is smaller than b, zero if they are equal and a positive number otherwise.
+     */
+    public static int compare(ByteBuffer a, int aOffset, int aLength, ByteBuffer b, int bOffset, int bLength) {
+        int length = Math.min(aLength, bLength);
+        int i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES) {
+            long x = a.getLong(aOffset + i);
+            long y = b.getLong(bOffset + i);
+            if (x != y) return Long.compareUnsigned(x, y);
+        }
+        for (; i < length; i++) {
+            int difference = Byte.toUnsignedInt(a.get(aOffset + i)) - Byte.toUnsignedInt(b.get(bOffset + i));
+            if (difference != 0) return difference;
+        }
+        return aLength - bLength;
+    }
+
+    /**
+     * The 64-bit hash of a value, which is FNV-1a over its UTF-8 bytes, spread over all bits by the finalizer of MurmurHash3. Unlike String#hashCode(), it is the same for
+     * a String and its bytes, and it is wide enough for data sets with billions of values.
+     */
+    public static long valueHash(String value) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                return valueHash(bytes, 0, bytes.length);
+            }
+            hash = (hash ^ c) * FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    public static long valueHash(byte[] value, int offset, int length) {
+        long hash = FNV_OFFSET;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ (value[i] & 0xFF)) * FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    public static long valueHash(ByteBuffer value, int offset, int length) {
+        long hash = FNV_OFFSET;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ (value.get(i) & 0xFF)) * FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Calculates the {@link #valueHash} of consecutive parts of a UTF-8 encoded value.
+     *
+     * @param partLengths the lengths of all but the last part in UTF-16 chars (which is what {@link String#length()} counts). The last part spans the rest of the value.
+     * @param hashes      receives the hash of every part, needs to be one element longer than partLengths.
+     */
+    public static void valueHashes(ByteBuffer buffer, int offset, int length, int[] partLengths, long[] hashes) {
+        int end = offset + length;
+        int start = offset;
+        for (int part = 0; part < partLengths.length; part++) {
+            int i = start;
+            int remaining = partLengths[part];
+            while (remaining > 0 && i < end) {
+                int b = buffer.get(i) & 0xFF;
+                // supplementary characters are represented by a surrogate pair in a String
+                remaining -= b >= 0xF0 ? 2 : 1;
+                i += b < 0x80 ? 1 : b < 0xE0 ? 2 : b < 0xF0 ? 3 : 4;
+            }
+            hashes[part] = valueHash(buffer, start, i - start);
+            start = i;
+        }
+        hashes[partLengths.length] = valueHash(buffer, start, end - start);
+    }
+
+    public static byte[] encodeValue(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static String decodeValue(byte[] value) {
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Creates a writer for a record file. If block summaries are enabled, the {@link BlockSummary} of the file is written as well. The positions in the summary refer to the
+     * uncompressed records.
+     */
+    public Writer writer(Path path) throws IOException {
+        return new Writer(BlockCompression.output(path, config), summarize ? new BlockSummary.Writer(path) : null);
+    }
+
+    public Reader reader(Path path) throws IOException {
+        return new Reader(BlockCompression.input(path, config));
+    }
+
+    /**
+     * @return true if the records can be read in place using a {@link MappedReader}. Only the binary format supports this, as long as the files are not compressed.
+     */
+    public boolean supportsMapping() {
+        return binary && !config.compressTempFiles;
+    }
+
+    public MappedReader mappedReader(Path path) throws IOException {
+        if (!binary) throw new IllegalStateException("Only binary record files can be memory-mapped");
+        return new MappedReader(FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    /**
+     * Decodes serialized attributes, that have been read by a {@link Reader}, and hands every attribute occurrence tuple to the consumer.
+     *
+     * @param buffer   the buffer holding the serialized attributes, e.g. {@link Reader#buffer()}
+     * @param offset   the position of the first byte of the serialized attributes
+     * @param length   the number of bytes of the serialized attributes
+     * @param consumer receives every attribute id together with its occurrences
+     */
+    public void decode(byte[] buffer, int offset, int length, AttributeConsumer consumer) {
+        decode(ByteBuffer.wrap(buffer), offset, length, consumer);
+    }
+
+    /**
+     * Decodes serialized attributes in place. Used for records, which are located by a {@link MappedReader}.
+     *
+     * @param buffer   the buffer holding the serialized attributes
+     * @param offset   the position of the first byte of the serialized attributes
+     * @param length   the number of bytes of the serialized attributes
+     * @param consumer receives every attribute id together with its occurrences
+     */
+    public void decode(ByteBuffer buffer, int offset, int length, AttributeConsumer consumer) {
+        visit(buffer, offset, length, (id, occurrences) -> {
+            consumer.accept(id, occurrences);
+            return true;
+        });
+    }
+
+    /**
+     * Checks whether any of the serialized attributes fulfills the predicate. Stops decoding at the first match.
+     */
+    public boolean anyAttribute(ByteBuffer buffer, int offset, int length, IntPredicate predicate) {
+        return !visit(buffer, offset, length, (id, occurrences) -> !predicate.test(id));
+    }
+
+    /**
+     * Hands every attribute occurrence tuple to the visitor until it returns false.
+     *
+     * @return false if the visitor stopped the decoding, true otherwise.
+     */
+    private boolean visit(ByteBuffer buffer, int offset, int length, AttributeVisitor visitor) {
+        int end = offset + length;
+        if (binary) {
+            long current = 0L;
+            int shift = 0;
+            int index = -1; // the first varint is the number of attributes, which is not needed here
+            int id = 0;
+            for (int i = offset; i < end; i++) {
+                byte b = buffer.get(i);
+                current |= (long) (b & 0x7F) << shift;
+                shift += 7;
+                if (b >= 0) {
+                    // the highest bit is not set -> last byte of the varint
+                    if (index >= 0) {
+                        if ((index & 1) == 0) id = (int) current;
+                        else if (!visitor.visit(id, current)) return false;
+                    }
+                    index++;
+                    current = 0L;
+                    shift = 0;
+                }
+            }
+        } else {
+            int id = 0;
+            long number = 0L;
+            for (int i = offset; i < end; i++) {
+                byte b = buffer.get(i);
+                if (b == ',') { // attribute-occurrence separator
+                    id = (int) number;
+                    number = 0L;
+                } else if (b == ';') { // attribute-attribute separator
+                    if (!visitor.visit(id, number)) return false;
+                    number = 0L;
+                } else {
+                    number = number * 10 + (b - '0');
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the serialized attributes to an attribute map. If an attribute is already present, the occurrences are summed up.
+     */
+    public void decode(byte[] buffer, int offset, int length, Map<Integer, Long> attributes) {
+        decode(buffer, offset, length, (id, occurrences) -> attributes.merge(id, occurrences, Long::sum));
+    }
+
+    @FunctionalInterface
+    public interface AttributeConsumer {
+        void accept(int attributeId, long occurrences);
+    }
+
+    @FunctionalInterface
+    private interface AttributeVisitor {
+        boolean visit(int attributeId, long occurrences);
+    }
+
+    /**
+     * Buffered writer for a single record file.
+     */
+    public class Writer implements AutoCloseable {
+        private final OutputStream output;
+        private final BlockSummary.Writer summary;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position;
+        // the number of bytes, which have already been written to the output
+        private long written;
+
+        private Writer(OutputStream output, BlockSummary.Writer summary) {
+            this.output = output;
+            this.summary = summary;
+        }
+
+        /**
+         * Writes a record whose attributes are still serialized. The record is copied without decoding it.
+         *
+         * @param record       the value followed by the serialized attributes, as laid out by {@link Reader#buffer()}
+         * @param valueLength  the number of bytes of the value
+         * @param recordLength the number of bytes of the whole record
+         */
+        public void write(byte[] record, int valueLength, int recordLength) throws IOException {
+            if (summary != null) {
+                summary.startRecord(written + position);
+                decode(record, valueLength, recordLength - valueLength, (id, occurrences) -> summary.add(id));
+            }
+            writeValue(record, 0, valueLength);
+            writeBytes(record, valueLength, recordLength - valueLength);
+            if (!binary) writeByte('\n');
+        }
+
+        public void write(byte[] value, int valueLength, Map<Integer, Long> attributes) throws IOException {
+            if (summary != null) {
+                summary.startRecord(written + position);
+                for (int id : attributes.keySet()) {
+                    summary.add(id);
+                }
+            }
+            writeValue(value, 0, valueLength);
+            if (binary) {
+                writeVarint(attributes.size());
+                for (Map.Entry<Integer, Long> attribute : attributes.entrySet()) {
+                    writeVarint(attribute.getKey());
+                    writeVarint(attribute.getValue());
+                }
+            } else {
+                for (Map.Entry<Integer, Long> attribute : attributes.entrySet()) {
+                    writeAttribute(attribute.getKey(), attribute.getValue());
+                }
+                writeByte('\n');
+            }
+        }
+
+        /**
+         * Writes a record whose value is given as a slice and whose attributes are given as parallel arrays.
+         */
+        public void write(byte[] value, int offset, int length, int[] ids, long[] occurrences, int size) throws IOException {
+            if (summary != null) {
+                summary.startRecord(written + position);
+                for (int i = 0; i < size; i++) {
+                    summary.add(ids[i]);
+                }
+            }
+            writeValue(value, offset, length);
+            if (binary) {
+                writeVarint(size);
+                for (int i = 0; i < size; i++) {
+                    writeVarint(ids[i]);
+                    writeVarint(occurrences[i]);
+                }
+            } else {
+                for (int i = 0; i < size; i++) {
+                    writeAttribute(ids[i], occurrences[i]);
+                }
+                writeByte('\n');
+            }
+        }
+
+        private void writeValue(byte[] value, int offset, int length) throws IOException {
+            if (binary) {
+                writeVarint(length);
+                writeBytes(value, offset, length);
+            } else {
+                writeBytes(value, offset, length);
+                writeByte('\n'); // separate the value and the serialized attributes by a new line
+            }
+        }
+
+        private void writeAttribute(int id, long occurrences) throws IOException {
+            writeAscii(String.valueOf(id));
+            writeByte(','); // attribute-occurrence separator
+            writeAscii(String.valueOf(occurrences));
+            writeByte(';'); // attribute-attribute separator
+        }
+
+        private void writeVarint(long value) throws IOException {
+            while ((value & ~0x7FL) != 0L) {
+                writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        private void writeAscii(String s) throws IOException {
+            for (int i = 0; i < s.length(); i++) {
+                writeByte(s.charAt(i));
+            }
+        }
+
+        private void writeByte(int b) throws IOException {
+            if (position == buffer.length) flush();
+            buffer[position++] = (byte) b;
+        }
+
+        private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+            if (length > buffer.length - position) {
+                flush();
+                if (length > buffer.length) {
+                    output.write(bytes, offset, length);
+                    written += length;
+                    return;
+                }
+            }
+            System.arraycopy(bytes, offset, buffer, position, length);
+            position += length;
+        }
+
+        private void flush() throws IOException {
+            output.write(buffer, 0, position);
+            written += position;
+            position = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            output.close();
+            if (summary != null) {
+                summary.close(written);
+            }
+        }
+    }
+
+    /**
+     * Buffered reader for a single record file. After a successful call of {@link #next()} the current record can be accessed using {@link #value()} and
+     * {@link #serializedAttributes()}. Consumers which do not need their own copy of the record can access it in place using {@link #buffer()}: the value occupies the first
+     * {@link #valueLength()} bytes, the serialized attributes follow up to {@link #recordLength()}. The buffer is overwritten by the next call of {@link #next()}.
+     */
+    public class Reader implements AutoCloseable {
+        private final InputStream input;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position;
+        private int limit;
+        private byte[] scratch = new byte[64];
+        private int scratchLength;
+        private int valueLength;
+        // the number of bytes, which have been read into the buffer so far
+        private long filled;
+
+        private Reader(InputStream input) {
+            this.input = input;
+        }
+
+        /**
+         * @return the byte offset of the next record in the file.
+         */
+        public long position() {
+            return filled - limit + position;
+        }
+
+        /**
+         * Skips the given number of bytes, which need to end at a record boundary.
+         */
+        public void skip(long bytes) throws IOException {
+            int buffered = limit - position;
+            if (bytes <= buffered) {
+                position += (int) bytes;
+                return;
+            }
+            position = limit;
+            input.skipNBytes(bytes - buffered);
+            filled += bytes - buffered;
+        }
+
+        /**
+         * Reads the next record.
+         *
+         * @return false if the end of the file was reached, true otherwise.
+         */
+        public boolean next() throws IOException {
+            scratchLength = 0;
+            if (binary) {
+                if (!fill()) return false;
+                valueLength = (int) readVarint();
+                readFully(valueLength);
+
+                // copy the serialized attributes without decoding them
+                long size = copyVarint();
+                for (long i = 0; i < 2 * size; i++) {
+                    copyVarint();
+                }
+            } else {
+                if (!readLine()) return false;
+                valueLength = scratchLength;
+                readLine();
+            }
+            return true;
+        }
+
+        public byte[] value() {
+            return Arrays.copyOf(scratch, valueLength);
+        }
+
+        public byte[] serializedAttributes() {
+            return Arrays.copyOfRange(scratch, valueLength, scratchLength);
+        }
+
+        public byte[] buffer() {
+            return scratch;
+        }
+
+        public int valueLength() {
+            return valueLength;
+        }
+
+        public int recordLength() {
+            return scratchLength;
+        }
+
+        /**
+         * Appends a single varint to the scratch buffer and returns its value.
+         */
+        private long copyVarint() throws IOException {
+            long result = 0L;
+            int shift = 0;
+            int b;
+            do {
+                b = readByte();
+                appendScratch(b);
+                result |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return result;
+        }
+
+        private long readVarint() throws IOException {
+            long result = 0L;
+            int shift = 0;
+            int b;
+            do {
+                b = readByte();
+                result |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return result;
+        }
+
+        /**
+         * Appends the next line to the scratch buffer.
+         *
+         * @return false if the end of the file was reached before any byte could be read.
+         */
+        private boolean readLine() throws IOException {
+            int start = scratchLength;
+            while (true) {
+                if (!fill()) return scratchLength > start;
+                byte b = buffer[position++];
+                if (b == '\n') return true;
+                appendScratch(b);
+            }
+        }
+
+        private void appendScratch(int b) {
+            if (scratchLength == scratch.length) scratch = Arrays.copyOf(scratch, scratch.length * 2);
+            scratch[scratchLength++] = (byte) b;
+        }
+
+        private int readByte() throws IOException {
+            if (!fill()) throw new IOException("Unexpected end of record file");
+            return buffer[position++] & 0xFF;
+        }
+
+        /**
+         * Appends the next length bytes to the scratch buffer.
+         */
+        private void readFully(int length) throws IOException {
+            if (scratchLength + length > scratch.length) {
+                scratch = Arrays.copyOf(scratch, Math.max(scratch.length * 2, scratchLength + length));
+            }
+            int read = 0;
+            while (read < length) {
+                if (!fill()) throw new IOException("Unexpected end of record file");
+                int n = Math.min(length - read, limit - position);
+                System.arraycopy(buffer, position, scratch, scratchLength, n);
+                position += n;
+                scratchLength += n;
+                read += n;
+            }
+        }
+
+        /**
+         * Ensures that there is at least one unread byte in the buffer.
+         *
+         * @return false if the end of the file was reached.
+         */
+        private boolean fill() throws IOException {
+            if (position < limit) return true;
+            limit = input.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return false;
+            }
+            filled += limit;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+
+    /**
+     * Zero-copy reader for a binary record file. The file is memory-mapped in windows and the records are not copied but located inside the current window, see
+     * {@link #buffer()}, {@link #valueOffset()}, {@link #valueLength()}, {@link #attributesOffset()} and {@link #attributesLength()}. Since records must not span two windows,
+     * {@link #next()} stops at the end of a window. The owner has to call {@link #remap()} once it no longer needs any record of the current window.
+     */
+    public static class MappedReader implements AutoCloseable {
+        private static final int WINDOW_SIZE = 1 << 28;
+        private final FileChannel channel;
+        private final long fileSize;
+        private MappedByteBuffer window;
+        private long windowStart;
+        private int windowSize;
+        private int position;
+        // the number of bytes after the end of the current window, which have been skipped
+        private long skipped;
+        private int valueOffset;
+        private int valueLength;
+        private int attributesOffset;
+        private int attributesLength;
+
+        private MappedReader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.fileSize = channel.size();
+            this.windowSize = WINDOW_SIZE;
+            map();
+        }
+
+        /**
+         * Locates the next record inside the current window.
+         *
+         * @return false if the end of the file or the end of the current window was reached.
+         */
+        public boolean next() {
+            int limit = window.limit();
+            int next = position;
+
+            // every varint is read with a bounds check, since the record might be cut off by the end of the window.
+            long length = 0L;
+            int shift = 0;
+            byte b;
+            do {
+                if (next >= limit) return false;
+                b = window.get(next++);
+                length |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            if (next + length > limit) return false;
+            int start = next;
+            next += (int) length;
+
+            long size = 0L;
+            shift = 0;
+            do {
+                if (next >= limit) return false;
+                b = window.get(next++);
+                size |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            for (long i = 0; i < 2 * size; i++) {
+                do {
+                    if (next >= limit) return false;
+                    b = window.get(next++);
+                } while (b < 0);
+            }
+
+            valueOffset = start;
+            valueLength = (int) length;
+            attributesOffset = start + valueLength;
+            attributesLength = next - attributesOffset;
+            position = next;
+            return true;
+        }
+
+        /**
+         * @return true if there are bytes left after the last record, that has been located.
+         */
+        public boolean hasRemaining() {
+            return position() < fileSize;
+        }
+
+        /**
+         * @return the byte offset of the next record in the file.
+         */
+        public long position() {
+            return windowStart + position + skipped;
+        }
+
+        /**
+         * Skips the given number of bytes, which need to end at a record boundary. If the skipped bytes exceed the current window, the next record is located after the next
+         * {@link #remap()}.
+         */
+        public void skip(long bytes) {
+            int available = window.limit() - position;
+            if (bytes <= available) {
+                position += (int) bytes;
+            } else {
+                position = window.limit();
+                skipped += bytes - available;
+            }
+        }
+
+        /**
+         * Moves the window to the first record, that has not been located yet. Every slice of the previous window becomes invalid.
+         */
+        public void remap() throws IOException {
+            if (position == 0) {
+                // not even a single record did fit into the window
+                windowSize = (int) Math.min(Integer.MAX_VALUE, 2L * windowSize);
+            }
+            windowStart += position + skipped;
+            skipped = 0L;
+            map();
+        }
+
+        private void map() throws IOException {
+            window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(windowSize, fileSize - windowStart));
+            position = 0;
+        }
+
+        public ByteBuffer buffer() {
+            return window;
+        }
+
+        public int valueOffset() {
+            return valueOffset;
+        }
+
+        public int valueLength() {
+            return valueLength;
+        }
+
+        public int attributesOffset() {
+            return attributesOffset;
+        }
+
+        public int attributesLength() {
+            return attributesLength;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package io;
+
+import runner.Config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The record parser splits the records of a relation file into fields, working directly on the UTF-8 bytes of the file. The bytes are read into a window, which grows if a
+ * single record does not fit into it. A field is only a range of the window, it is decoded into a String once it is requested, which is why the columns that are not needed
+ * cost nothing but the scan for the special characters.
+ * <p>
+ * Quotes and escape characters are removed in place: the content of a field is never longer than its input, which is why the unescaped bytes can be written over the bytes
+ * that have already been parsed. Fields without any quote or escape character stay where they are.
+ * <p>
+ * The parser reproduces com.opencsv.CSVParser#parseLine together with the line handling of the CSVReader: lines end at \n, \r and \r\n, a line break inside quotes is kept
+ * as \n and the in-field flag carries over to the next line of a multi-line record. This includes the quirks of opencsv, like dropping an escape character that does not
+ * escape anything or keeping a quote in the middle of a field, so that both produce the same values. The separator, quote and escape characters have to be ASCII, see
+ * {@link RecordBoundaryScanner#supports(Config)}.
+ */
+public class RecordParser implements AutoCloseable {
+    public static final int WINDOW_SIZE = 1 << 20;
+    private static final byte PLAIN = 0;
+    private static final byte SEPARATOR = 1;
+    private static final byte QUOTE = 2;
+    private static final byte ESCAPE = 3;
+    private static final byte LINE_BREAK = 4;
+    // opencsv only treats a quote in the middle of a field as part of it after the first three characters of a line
+    private static final int BEGINNING_OF_LINE = 3;
+
+    private final InputStream input;
+    private final byte[] classes = new byte[256];
+    private final byte separator;
+    private final byte quoteChar;
+    private final byte escape;
+    private final boolean strictQuotes;
+    private final boolean ignoreLeadingWhiteSpace;
+    private byte[] window;
+    private int position;
+    private int limit;
+    private boolean endOfInput;
+    private boolean inField;
+
+    private int recordStart;
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int fields;
+    private boolean multiline;
+
+    /**
+     * @param capacity the initial size of the window, which only needs to be larger than the input if the whole input is read anyway
+     */
+    public RecordParser(InputStream input, Config config, int capacity) {
+        this.input = input;
+        this.separator = (byte) config.separator;
+        this.quoteChar = (byte) config.quoteChar;
+        this.escape = (byte) config.fileEscape;
+        this.strictQuotes = config.strictQuotes;
+        this.ignoreLeadingWhiteSpace = config.ignoreLeadingWhiteSpace;
+        this.window = new byte[Math.max(16, capacity)];
+        // the order follows the precedence of the characters in opencsv, lines are split before they are parsed
+        classes[config.separator] = SEPARATOR;
+        classes[config.quoteChar] = QUOTE;
+        classes[config.fileEscape] = ESCAPE;
+        classes['\n'] = LINE_BREAK;
+        classes['\r'] = LINE_BREAK;
+    }
+
+    /**
+     * Parses the next record.
+     *
+     * @return false if the input has ended
+     * @throws IOException if the input can not be read or ends inside a quoted field
+     */
+    public boolean next() throws IOException {
+        fields = 0;
+        multiline = false;
+        if (limit - position < 2 && !endOfInput) {
+            recordStart = position;
+            refill();
+        }
+        if (position == limit) {
+            return false;
+        }
+        recordStart = position;
+
+        byte[] b = window;
+        int i = position;
+        int lim = limit;
+        int fieldStart = i;
+        // the end of the unescaped content of the current field
+        int w = i;
+        boolean inQuotes = false;
+        boolean inField = this.inField;
+        // the number of chars of the current line that have been read, which is only counted as long as it matters
+        int lineChars = 0;
+
+        while (true) {
+            // every special character looks at most one byte ahead
+            if (lim - i < 2 && !endOfInput) {
+                position = i;
+                int shift = refill();
+                b = window;
+                i = position;
+                lim = limit;
+                fieldStart -= shift;
+                w -= shift;
+                continue;
+            }
+            if (i == lim) {
+                // the last line has no line break
+                if (inQuotes) {
+                    position = i;
+                    throw new IOException("The input ends inside a quoted field");
+                }
+                this.inField = false;
+                endField(fieldStart, w);
+                position = i;
+                return true;
+            }
+
+            int c = b[i] & 0xFF;
+            byte type = classes[c];
+            if (type == PLAIN) {
+                int end = i + 1;
+                while (end < lim && classes[b[end] & 0xFF] == PLAIN) {
+                    end++;
+                }
+                if (lineChars <= BEGINNING_OF_LINE) {
+                    lineChars += chars(b, i, end);
+                }
+                if (!strictQuotes || inQuotes) {
+                    if (w != i) {
+                        System.arraycopy(b, i, b, w, end - i);
+                    }
+                    w += end - i;
+                    inField = true;
+                }
+                i = end;
+                continue;
+            }
+
+            i++;
+            if (type == LINE_BREAK) {
+                if (c == '\r' && i < lim && b[i] == '\n') {
+                    i++;
+                }
+                if (inQuotes) {
+                    // the record continues on the next line
+                    b[w++] = '\n';
+                    multiline = true;
+                    lineChars = 0;
+                    continue;
+                }
+                this.inField = false;
+                endField(fieldStart, w);
+                position = i;
+                return true;
+            }
+
+            lineChars++;
+            int next = i < lim ? b[i] & 0xFF : -1;
+            if (type == ESCAPE) {
+                if (!strictQuotes) {
+                    inField = true;
+                }
+                if ((inQuotes || inField) && (next == quoteChar || next == escape || next == separator)) {
+                    b[w++] = (byte) next;
+                    i++;
+                    lineChars++;
+                }
+            } else if (type == QUOTE) {
+                if ((inQuotes || inField) && next == quoteChar) {
+                    // a doubled quote
+                    b[w++] = quoteChar;
+                    i++;
+                    lineChars++;
+                } else {
+                    inQuotes = !inQuotes;
+                    // a quote in the middle of a field, like in a,bc"d"ef,g
+                    if (!strictQuotes && lineChars > BEGINNING_OF_LINE && b[i - 2] != separator && next != -1 && next != '\n' && next != '\r' && next != separator) {
+                        if (ignoreLeadingWhiteSpace && w > fieldStart && isWhitespace(b, fieldStart, w)) {
+                            w = fieldStart;
+                        } else {
+                            b[w++] = quoteChar;
+                        }
+                    }
+                }
+                inField = !inField;
+            } else if (!inQuotes) {
+                endField(fieldStart, w);
+                fieldStart = i;
+                w = i;
+                inField = false;
+            } else {
+                // a quoted separator
+                b[w++] = (byte) c;
+                inField = true;
+            }
+        }
+    }
+
+    private void endField(int start, int end) {
+        if (fields == starts.length) {
+            starts = Arrays.copyOf(starts, fields * 2);
+            ends = Arrays.copyOf(ends, fields * 2);
+        }
+        starts[fields] = start;
+        ends[fields] = end;
+        fields++;
+    }
+
+    /**
+     * Moves the current record to the start of the window, or grows the window if the record already starts there, and reads more input.
+     *
+     * @return the distance the record has been moved by
+     */
+    private int refill() throws IOException {
+        int shift = recordStart;
+        if (shift > 0) {
+            System.arraycopy(window, shift, window, 0, limit - shift);
+            for (int field = 0; field < fields; field++) {
+                starts[field] -= shift;
+                ends[field] -= shift;
+            }
+            limit -= shift;
+            position -= shift;
+            recordStart = 0;
+        } else if (limit == window.length) {
+            window = Arrays.copyOf(window, window.length * 2);
+        }
+        int read = input.read(window, limit, window.length - limit);
+        if (read < 0) {
+            endOfInput = true;
+        } else {
+            limit += read;
+        }
+        return shift;
+    }
+
+    /**
+     * Counts the UTF-16 chars of UTF-8 bytes, a character outside the basic multilingual plane takes two chars.
+     */
+    private static int chars(byte[] b, int from, int to) {
+        int chars = 0;
+        for (int i = from; i < to; i++) {
+            if ((b[i] & 0xC0) != 0x80) {
+                chars += (b[i] & 0xF8) == 0xF0 ? 2 : 1;
+            }
+        }
+        return chars;
+    }
+
+    private static boolean isWhitespace(byte[] b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (b[i] < 0) {
+                return new String(b, from, to - from, StandardCharsets.UTF_8).chars().allMatch(Character::isWhitespace);
+            }
+            if (!Character.isWhitespace(b[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of fields of the current record
+     */
+    public int fields() {
+        return fields;
+    }
+
+    /**
+     * @return true if the current record spans several lines, i.e. its quoted fields might contain line breaks.
+     */
+    public boolean multiline() {
+        return multiline;
+    }
+
+    /**
+     * @return the window, which holds the unescaped bytes of the fields of the current record. It is only valid until the next record is parsed.
+     */
+    public byte[] window() {
+        return window;
+    }
+
+    public int start(int field) {
+        return starts[field];
+    }
+
+    public int end(int field) {
+        return ends[field];
+    }
+
+    /**
+     * Replaces every line break of a field with \0 in place.
+     */
+    public void maskLineBreaks(int field) {
+        for (int i = starts[field]; i < ends[field]; i++) {
+            if (window[i] == '\n') window[i] = '\0';
+        }
+    }
+
+    /**
+     * @return true if the field consists of exactly the given bytes
+     */
+    public boolean equals(int field, byte[] value) {
+        return Arrays.equals(window, starts[field], ends[field], value, 0, value.length);
+    }
+
+    public String field(int field) {
+        return new String(window, starts[field], ends[field] - starts[field], StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
@@ -1,33 +1,48 @@
 package io;
 
-import com.google.common.hash.BloomFilter;
+import com.google.common.io.ByteStreams;
 import com.opencsv.CSVParserBuilder;
 import com.opencsv.CSVReader;
 import com.opencsv.CSVReaderBuilder;
 import com.opencsv.exceptions.CsvValidationException;
 import runner.Config;
 import structures.Attribute;
+import structures.Chunk;
+import structures.MemoryBudget;
 import structures.SortJob;
+import structures.ValueFilter;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+/**
+ * Reads the rows of a relation file or of a chunk of it. If the special characters of the relation are ASCII, the rows are split by the {@link RecordParser} and only the
+ * relevant columns are decoded, the values of all other columns are null. Otherwise, the rows are read with opencsv.
+ */
 public class RelationalInput {
 
     private final Config config;
     private final int[] relevantAttributes;
+    private final byte[] nullBytes;
     public List<Attribute> attributes;
     public String[] headerLine;
     protected CSVReader CSVReader;
+    protected RecordParser parser;
     protected String[] nextLine;
     protected int currentLineNumber = -1; // Initialized to -1 because of lookahead
     protected int numberOfSkippedLines = 0;
-    int filterMasks;
+    private ColumnCache.Writer columnCache;
     private boolean chunkReader = true;
 
     public RelationalInput(Path relationPath, Config config) throws IOException, CsvValidationException {
@@ -35,14 +50,22 @@ public class RelationalInput {
         chunkReader = false;
 
         this.config = config;
+        this.nullBytes = nullBytes(config);
 
-        BufferedReader reader = Files.newBufferedReader(relationPath);
+        if (usesParser(config)) {
+            InputStream input = Files.newInputStream(relationPath);
+            this.parser = new RecordParser(input, config, (int) Math.min(RecordParser.WINDOW_SIZE, Files.size(relationPath) + 2));
+            // read the first line
+            this.nextLine = parser.next() ? parseAll() : null;
+        } else {
+            BufferedReader reader = Files.newBufferedReader(relationPath);
 
-        this.CSVReader =
-                new CSVReaderBuilder(reader).withCSVParser(new CSVParserBuilder().withSeparator(config.separator).withEscapeChar(config.fileEscape).withIgnoreLeadingWhiteSpace(config.ignoreLeadingWhiteSpace).withStrictQuotes(config.strictQuotes).withQuoteChar(config.quoteChar).build()).build();
+            this.CSVReader =
+                    new CSVReaderBuilder(reader).withCSVParser(new CSVParserBuilder().withSeparator(config.separator).withEscapeChar(config.fileEscape).withIgnoreLeadingWhiteSpace(config.ignoreLeadingWhiteSpace).withStrictQuotes(config.strictQuotes).withQuoteChar(config.quoteChar).build()).build();
 
-        // read the first line
-        this.nextLine = CSVReader.readNext();
+            // read the first line
+            this.nextLine = CSVReader.readNext();
+        }
 
         this.relevantAttributes = new int[nextLine.length];
         for (int i = 0; i < relevantAttributes.length; i++) {
@@ -64,13 +87,14 @@ public class RelationalInput {
     }
 
     /**
-     * Constructor for reading a chuck file
+     * Constructor for reading a chunk, which is a byte range of a relation file. The chunk has to start at the beginning of a record, see {@link RecordBoundaryScanner}.
      *
      * @param sortJob the chunk to be processed
      * @param config  the reading config
      */
     public RelationalInput(SortJob sortJob, Config config) throws IOException {
         this.config = config;
+        this.nullBytes = nullBytes(config);
 
         this.attributes = new ArrayList<>();
         for (Attribute connectedAttribute : sortJob.connectedAttributes()) {
@@ -79,23 +103,55 @@ public class RelationalInput {
 
         this.relevantAttributes = attributes.stream().flatMapToInt(x -> Arrays.stream(x.getContainedColumns())).distinct().toArray();
 
-        BufferedReader reader = Files.newBufferedReader(sortJob.chunkPath());
+        Chunk chunk = sortJob.chunk();
+        this.headerLine = chunk.headerLine();
+        FileChannel channel = FileChannel.open(chunk.relationPath(), StandardOpenOption.READ).position(chunk.start());
+        InputStream input = ByteStreams.limit(Channels.newInputStream(channel), chunk.end() - chunk.start());
+
+        if (usesParser(config)) {
+            this.parser = new RecordParser(input, config, (int) Math.min(RecordParser.WINDOW_SIZE, chunk.end() - chunk.start() + 2));
+        } else {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
 
-        this.CSVReader = new CSVReaderBuilder(reader).withCSVParser(new CSVParserBuilder().withQuoteChar(config.quoteChar).withSeparator(config.separator).build()).build();
+            this.CSVReader =
+                    new CSVReaderBuilder(reader).withCSVParser(new CSVParserBuilder().withSeparator(config.separator).withEscapeChar(config.fileEscape).withIgnoreLeadingWhiteSpace(config.ignoreLeadingWhiteSpace).withStrictQuotes(config.strictQuotes).withQuoteChar(config.quoteChar).build()).build();
+        }
 
+        if (chunk.skipHeader()) {
+            readNextLine();
+        }
         // read the first line
         this.nextLine = readNextLine();
+        if (config.inputFileSkipDifferingLines) {
+            readToNextValidLine();
+        }
+    }
+
 
+    private static boolean usesParser(Config config) {
+        return config.byteParser && RecordBoundaryScanner.supports(config);
     }
 
+    private static byte[] nullBytes(Config config) {
+        return config.nullString == null ? null : config.nullString.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Caches all relevant columns of every line that is read, see {@link ColumnCache}.
+     *
+     * @param budget the memory budget, which the cache acquires its memory from, null if there is none
+     */
+    public void cacheColumns(Chunk chunk, MemoryBudget budget) {
+        this.columnCache = new ColumnCache.Writer(chunk, relevantAttributes, config, budget);
+    }
 
     /**
      * Builds the string representation for every attribute combination of the given relation and updates the attributes accordingly.
      *
-     * @param filter The Bloom filter used to mask non-informative values.
+     * @param filter The value filter used to mask non-informative values.
      * @param layer  The integer indication, in which layer the algorithm currently is.
      */
-    public void updateAttributeCombinations(BloomFilter<Integer> filter, int layer) {
+    public void updateAttributeCombinations(ValueFilter filter, int layer) {
         String[] values = next(filter, layer);
         assert values != null;
 
@@ -141,15 +197,19 @@ public class RelationalInput {
         return !(this.nextLine == null);
     }
 
-    private String[] next(BloomFilter<Integer> filter, int layer) {
+    private String[] next(ValueFilter filter, int layer) {
         String[] currentLine = this.nextLine;
 
         this.nextLine = readNextLine();
 
-        if (!chunkReader && config.inputFileSkipDifferingLines) {
+        if (config.inputFileSkipDifferingLines) {
             readToNextValidLine();
         }
 
+        if (columnCache != null) {
+            columnCache.add(currentLine);
+        }
+
         if (config.useFilter && layer > 1) {
             replaceNonInformative(currentLine, filter);
         }
@@ -158,13 +218,15 @@ public class RelationalInput {
         return currentLine;
     }
 
-    private void replaceNonInformative(String[] currentLine, BloomFilter<Integer> filter) {
+    private void replaceNonInformative(String[] currentLine, ValueFilter filter) {
+        int masked = 0;
         for (int ind : relevantAttributes) {
-            if (currentLine[ind] != null && !filter.mightContain(currentLine[ind].hashCode())) {
-                this.filterMasks++;
+            if (currentLine[ind] != null && !filter.mightContain(RecordCodec.valueHash(currentLine[ind]))) {
+                masked++;
                 currentLine[ind] = null;
             }
         }
+        if (masked > 0) filter.addMasked(masked);
     }
 
     /**
@@ -206,6 +268,9 @@ public class RelationalInput {
      * @return null if there was no next line else the array of values
      */
     private String[] readNextLine() {
+        if (parser != null) {
+            return parseNextLine();
+        }
         String[] lineArray = null;
         try {
             lineArray = this.CSVReader.readNext();
@@ -219,6 +284,51 @@ public class RelationalInput {
         return lineArray;
     }
 
+    /**
+     * Parses the next record and decodes its relevant columns, like {@link #readNextLine()} and {@link #replaceNullAndEscape(String[])} do for a line read by opencsv. The
+     * values of a line, which is skipped for having a differing length, are not decoded at all.
+     *
+     * @return null if there was no next line else the array of values
+     */
+    private String[] parseNextLine() {
+        try {
+            if (!parser.next()) {
+                return null;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        String[] lineArray = new String[parser.fields()];
+        boolean complete = lineArray.length == headerLine.length;
+        if (!complete && config.inputFileSkipDifferingLines) {
+            return lineArray;
+        }
+        for (int ind : relevantAttributes) {
+            if (ind >= lineArray.length) continue;
+            if (complete && parser.multiline()) {
+                parser.maskLineBreaks(ind);
+            }
+            if (chunkReader && nullBytes != null && parser.equals(ind, nullBytes) && config.nullHandling != Config.NullHandling.EQUALITY) {
+                // in equality mode, we treat every null entry as the same exact value
+                continue;
+            }
+            lineArray[ind] = parser.field(ind);
+        }
+        return lineArray;
+    }
+
+    /**
+     * Decodes every column of the current record without replacing anything, like a line read by opencsv.
+     */
+    private String[] parseAll() {
+        String[] lineArray = new String[parser.fields()];
+        for (int i = 0; i < lineArray.length; i++) {
+            lineArray[i] = parser.field(i);
+        }
+        return lineArray;
+    }
+
     /**
      * Replaces every string which resembles null to an actual null value
      *
@@ -226,19 +336,27 @@ public class RelationalInput {
      */
     private void replaceNullAndEscape(String[] lineArray) {
         for (int ind : relevantAttributes) {
+            if (lineArray.length == headerLine.length) {
+                lineArray[ind] = lineArray[ind].replace('\n', '\0');
+            }
             if (chunkReader && lineArray[ind].equals(config.nullString)) {
                 if (config.nullHandling != Config.NullHandling.EQUALITY) {
                     // in equality mode, we treat every null entry as the same exact value
                     lineArray[ind] = null;
                 }
-            } else if (!chunkReader && lineArray.length == headerLine.length) {
-                lineArray[ind] = lineArray[ind].replace('\n', '\0');
             }
         }
     }
 
     public void close() throws IOException {
-        CSVReader.close();
+        if (parser != null) {
+            parser.close();
+        } else {
+            CSVReader.close();
+        }
+        if (columnCache != null) {
+            columnCache.close();
+        }
     }
 
 }
\ No newline at end of file
@@ -1,23 +1,23 @@
 package io;
 
-import com.google.common.hash.BloomFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import runner.Config;
 import structures.Attribute;
+import structures.MemoryBudget;
 import structures.MergeJob;
 import structures.SortJob;
 import structures.SortResult;
+import structures.ValueFilter;
+import structures.ValueCountMap;
+import structures.ValueSketch;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * The sorter is responsible for the creation of one pre-processed file per table. The files consist of as many lines as
@@ -28,95 +28,296 @@ import java.util.Map;
  * @noinspection ALL
  */
 public class Sorter {
-    private final int maxMapSize;
+    private final long maxMapSize;
     private final long minKeepCount;
-    HashMap<String, HashMap<Integer, Long>> values;
+    private final MemoryBudget budget;
+    // the bytes reserved from the budget
+    private long reserved;
+    ValueCountMap values;
     Logger logger;
-    int currentSize;
     int spillCount;
     List<Path> spilledFiles;
+    RecordCodec codec;
+    // the value of the current (value, attribute) pair, if it is built from cached columns
+    private byte[] scratch = new byte[64];
 
     /**
-     * To initialize a sorter, only the maximum map size is required. The constructor will initialize the value map and set the currentSize to 0.
+     * To initialize a sorter, only the maximum map size is required. The constructor will initialize the value map.
      *
-     * @param maxMapSize The maximal summed number of attribute (combinations) to be stored in the nested layer. This value should be as high as possible without risking memory
-     *                   overflows for the best possible performance.
+     * @param maxMapSize The maximal number of bytes the value map may occupy before it is spilled. This value should be as high as possible without risking memory overflows
+     *                   for the best possible performance.
+     * @param budget     The memory budget shared by all sorters. If given, the map is spilled once the budget can not hold it anymore, instead of after maxMapSize bytes.
      */
-    public Sorter(int maxMapSize, long minKeepCount) {
+    public Sorter(long maxMapSize, long minKeepCount, MemoryBudget budget) {
         this.maxMapSize = maxMapSize;
         this.minKeepCount = minKeepCount;
-        values = new HashMap<>();
-        currentSize = 0;
+        this.budget = budget;
+        values = new ValueCountMap();
         logger = LoggerFactory.getLogger(Sorter.class);
     }
 
     /**
-     * This method processes a sort job. It will first deduplicate the values of a given chunk using a HashMap, while keeping track of with attributes are connected to which
-     * value. If the HashMap surpasses the maxMapSize or the end of the input is reached, the keys of the map are sorted and a file will be written to disk. The File has the
+     * This method processes a sort job. It will first deduplicate the values of a given chunk using a ValueCountMap, while keeping track of with attributes are connected to
+     * which value. If the map surpasses the maxMapSize or the end of the input is reached, the keys of the map are sorted and a file will be written to disk. The File has the
      * structure:
-     * [Value1]
-     * [Serialized Attributes of Value1]
-     * [Value2]
+     * [Value1][Serialized Attributes of Value1]
+     * [Value2][Serialized Attributes of Value2]
      * ....
+     * The encoding of the records is handled by the {@link RecordCodec}.
+     * <p>
+     * The first layer caches the columns of the chunk, from which all later layers are sorted, see {@link #processCached(SortJob, Config, ValueFilter, int)}.
      *
      * @param sortJob carries information regarding the input path, the connected attributes and the relation, that the chunk is associated with.
-     * @param config  carries information on how to parse the chunk file correctly.
+     * @param config  carries information on how to parse the chunk correctly.
      * @param filter  If the layer is at least two, the filter is used to disregard "non-informational" values.
      * @param layer   The current layer, equal to the dimension of the connected attributes.
      * @return A Tuple including a MergeJob and the connected attributes.
+     * @throws IOException if the chunk can not be read or a sorted run can not be written. The values of the chunk are incomplete in this case, the relation must not be
+     *                     validated.
      */
-    public SortResult process(SortJob sortJob, Config config, BloomFilter<Integer> filter, int layer) {
+    public SortResult process(SortJob sortJob, Config config, ValueFilter filter, int layer) throws IOException {
         spillCount = 0;
         spilledFiles = new ArrayList<>();
+        codec = new RecordCodec(config);
+        try {
+            if (layer > 1 && config.columnarCache) {
+                return processCached(sortJob, config, filter, layer);
+            }
+            return processInput(sortJob, config, filter, layer);
+        } finally {
+            // a failed job must not keep its share of the memory budget
+            values.clear();
+            releaseMemory();
+        }
+    }
 
-        RelationalInput input;
+    private SortResult processInput(SortJob sortJob, Config config, ValueFilter filter, int layer) throws IOException {
+        RelationalInput input = new RelationalInput(sortJob, config);
         try {
-            input = new RelationalInput(sortJob, config);
-        } catch (IOException e) {
-            e.printStackTrace();
-            return null;
-        }
-        while (input.hasNext()) {
-            input.updateAttributeCombinations(filter, layer);
-            for (Attribute attribute : input.attributes) {
-                String value = attribute.getCurrentValue();
-
-                if (value == null) {
-                    attribute.getMetadata().nullEntries++;
-                    continue;
-                }
+            if (config.columnarCache && config.maxNary != 1) {
+                input.cacheColumns(sortJob.chunk(), budget);
+            }
+            createSketches(sortJob, input.attributes);
+            while (input.hasNext()) {
+                input.updateAttributeCombinations(filter, layer);
+                for (Attribute attribute : input.attributes) {
+                    String value = attribute.getCurrentValue();
 
-                Map<Integer, Long> valueMap = values.computeIfAbsent(value, v -> new HashMap<>());
+                    if (value == null) {
+                        attribute.getMetadata().nullEntries++;
+                        continue;
+                    }
+
+                    // the total number of values is needed before the candidates are validated, which is why it can not be counted while merging.
+                    attribute.getMetadata().totalValues++;
 
-                if (1L == valueMap.compute(attribute.getId(), (k, v) -> v == null ? 1L : ++v)) {
-                    if (++currentSize > maxMapSize) {
-                        spill(sortJob.chunkPath(), false);
+                    if (values.add(value, attribute.getId())) {
+                        if (attribute.getSketch() != null) attribute.getSketch().add(value);
+                        if (exceedsMemory()) spill(sortJob.chunk().spillPrefix(), false);
                     }
                 }
             }
+            // if there are value which have not been written yet, we need to save them before ending the job
+            if (!values.isEmpty()) {
+                spill(sortJob.chunk().spillPrefix(), true);
+            }
+            releaseMemory();
+            mergeSketches(sortJob, input.attributes);
+        } finally {
+            // close the input reader
+            try {
+                input.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return new SortResult(new MergeJob(spilledFiles, sortJob.relationId(), null, false), input.attributes);
+    }
+
+    /**
+     * Sorts a chunk using its cached columns. Only the columns of the connected attributes are read. Instead of building the value of every row, the rows of an attribute are
+     * first grouped by the codes of its columns. The value of every group is built once and is added with the number of rows in the group.
+     */
+    private SortResult processCached(SortJob sortJob, Config config, ValueFilter filter, int layer) throws IOException {
+        List<Attribute> attributes = new ArrayList<>();
+        for (Attribute connectedAttribute : sortJob.connectedAttributes()) {
+            attributes.add(new Attribute(connectedAttribute.getId(), connectedAttribute.getRelationId(), connectedAttribute.getContainedColumns()));
+        }
+        createSketches(sortJob, attributes);
+
+        HashMap<Integer, ColumnCache.Column> columns = new HashMap<>();
+        for (Attribute attribute : attributes) {
+            for (int column : attribute.getContainedColumns()) {
+                if (columns.containsKey(column)) continue;
+                Path columnPath = sortJob.chunk().columnPath(column);
+                ColumnCache.Column cached = ColumnCache.Column.read(columnPath, config);
+                if (sortJob.dictionary() != null && cached.ids == null) {
+                    cached.assignIds(sortJob.dictionary(), columnPath, config);
+                }
+                if (config.useFilter && layer > 1) {
+                    cached.mask(filter);
+                }
+                columns.put(column, cached);
+            }
         }
-        // if there are value which have not been written yet, we need to save them before ending the job
+
+        for (Attribute attribute : attributes) {
+            int[] containedColumns = attribute.getContainedColumns();
+            ColumnCache.Column[] parts = new ColumnCache.Column[containedColumns.length];
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = columns.get(containedColumns[i]);
+            }
+
+            // number the distinct code combinations of the attribute, a combination containing null is null itself
+            int[] groups = parts[0].codes.clone();
+            int numGroups = parts[0].entries() + 1;
+            for (int i = 1; i < parts.length; i++) {
+                GroupIds groupIds = new GroupIds(groups.length);
+                int[] codes = parts[i].codes;
+                for (int row = 0; row < groups.length; row++) {
+                    groups[row] = groups[row] == ColumnCache.NULL || codes[row] == ColumnCache.NULL ? ColumnCache.NULL : groupIds.id(groups[row], codes[row]);
+                }
+                numGroups = groupIds.size() + 1;
+            }
+
+            long[] counts = new long[numGroups];
+            int[] firstRows = new int[numGroups];
+            for (int row = 0; row < groups.length; row++) {
+                if (counts[groups[row]]++ == 0) firstRows[groups[row]] = row;
+            }
+
+            attribute.getMetadata().nullEntries += counts[ColumnCache.NULL];
+            for (int group = 1; group < numGroups; group++) {
+                if (counts[group] == 0) continue;
+                // the total number of values is needed before the candidates are validated, which is why it can not be counted while merging.
+                attribute.getMetadata().totalValues += counts[group];
+                int length = buildValue(parts, firstRows[group]);
+                if (values.add(scratch, 0, length, attribute.getId(), counts[group])) {
+                    if (attribute.getSketch() != null) attribute.getSketch().add(scratch, 0, length);
+                    if (exceedsMemory()) spill(sortJob.chunk().spillPrefix(), false);
+                }
+            }
+        }
+
         if (!values.isEmpty()) {
-            spill(sortJob.chunkPath(), true);
+            spill(sortJob.chunk().spillPrefix(), true);
         }
-        // close the input reader
-        try {
-            input.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+        releaseMemory();
+        mergeSketches(sortJob, attributes);
+        return new SortResult(new MergeJob(spilledFiles, sortJob.relationId(), null, false), attributes);
+    }
+
+    /**
+     * Writes the UTF-8 bytes of the value of a row into the scratch buffer. The value is built like in RelationalInput#buildCurrentValue: n-ary values are prefixed with the
+     * lengths of all but the last part.
+     * <p>
+     * If the columns have global ids, the value is the tuple of the ids instead. Every part is written as its id followed by its value hash, which the Validator needs for
+     * the value filter. Both are written big endian, which is why the tuples are ordered by their ids.
+     *
+     * @return the length of the value
+     */
+    private int buildValue(ColumnCache.Column[] parts, int row) {
+        if (parts[0].ids != null) {
+            ensureScratch((Integer.BYTES + Long.BYTES) * parts.length);
+            int length = 0;
+            for (ColumnCache.Column part : parts) {
+                int code = part.codes[row];
+                length = putInt(part.ids[code], length);
+                length = putInt((int) (part.hashes[code] >>> 32), length);
+                length = putInt((int) part.hashes[code], length);
+            }
+            return length;
+        }
+
+        int length = 0;
+        if (parts.length > 1) {
+            for (int i = 0; i < parts.length - 1; i++) {
+                String partLength = Integer.toString(parts[i].charLengths[parts[i].codes[row]]);
+                ensureScratch(length + partLength.length() + 1);
+                for (int c = 0; c < partLength.length(); c++) {
+                    scratch[length++] = (byte) partLength.charAt(c);
+                }
+                scratch[length++] = (byte) (i < parts.length - 2 ? ':' : '|');
+            }
+        }
+        for (ColumnCache.Column part : parts) {
+            int code = part.codes[row];
+            int partLength = part.offsets[code + 1] - part.offsets[code];
+            ensureScratch(length + partLength);
+            System.arraycopy(part.values, part.offsets[code], scratch, length, partLength);
+            length += partLength;
+        }
+        return length;
+    }
+
+    private int putInt(int value, int position) {
+        scratch[position] = (byte) (value >>> 24);
+        scratch[position + 1] = (byte) (value >>> 16);
+        scratch[position + 2] = (byte) (value >>> 8);
+        scratch[position + 3] = (byte) value;
+        return position + Integer.BYTES;
+    }
+
+    private void ensureScratch(int length) {
+        if (length > scratch.length) {
+            scratch = Arrays.copyOf(scratch, Math.max(length, 2 * scratch.length));
+        }
+    }
+
+    /**
+     * Checks whether the value map needs to be spilled. With a memory budget, the memory of the map is reserved from the budget as it grows.
+     */
+    private boolean exceedsMemory() {
+        long usage = values.memoryUsage();
+        if (budget == null) {
+            return usage > maxMapSize;
+        }
+        if (usage <= reserved) {
+            return false;
+        }
+        long bytes = Math.max(budget.granule(), usage - reserved);
+        if (!budget.reserve(reserved, bytes)) {
+            return true;
+        }
+        reserved += bytes;
+        return false;
+    }
+
+    /**
+     * Every sort job sketches the values of its chunk on its own, the sketches are merged into the attributes of the layer once the chunk is sorted.
+     *
+     * @param attributes the copies of the connected attributes, which are used while sorting the chunk, in the same order
+     */
+    private static void createSketches(SortJob sortJob, List<Attribute> attributes) {
+        for (int i = 0; i < attributes.size(); i++) {
+            if (sortJob.connectedAttributes().get(i).getSketch() != null) attributes.get(i).setSketch(new ValueSketch());
+        }
+    }
+
+    private static void mergeSketches(SortJob sortJob, List<Attribute> attributes) {
+        for (int i = 0; i < attributes.size(); i++) {
+            if (attributes.get(i).getSketch() != null) sortJob.connectedAttributes().get(i).getSketch().merge(attributes.get(i).getSketch());
+        }
+    }
+
+    private void releaseMemory() {
+        if (budget != null) {
+            budget.release(reserved);
+            reserved = 0L;
         }
-        return new SortResult(new MergeJob(spilledFiles, sortJob.relationId(), null, false), input.attributes);
     }
 
     /**
      * Will spill the current state to disk and clean the used memory
      *
-     * @param chunkPath the path to which the file should be written.
+     * @param spillPrefix the prefix of the path to which the file should be written.
+     * @throws IOException if the file can not be written, it is not added to the spilled files then.
      */
-    private void spill(Path chunkPath, boolean isFinal) {
+    private void spill(Path spillPrefix, boolean isFinal) throws IOException {
         spillCount++;
-        Path spillPath = Path.of(chunkPath + "_" + spillCount + ".txt");
+        Path spillPath = Path.of(spillPrefix + "_" + spillCount + ".txt");
         toDisk(spillPath, isFinal);
+        releaseMemory();
         // keep track of all files that had
         spilledFiles.add(spillPath);
     }
@@ -127,36 +328,43 @@ public class Sorter {
      * @param outputPath The path to which the file is written. Will overwrite an existing file.
      * @param isFinal    A flag to indicate if the data to spill is the final action of the sorter.
      */
-    private void toDisk(Path outputPath, boolean isFinal) {
-        try {
-            BufferedWriter writer = Files.newBufferedWriter(outputPath, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE);
-
-            values.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(entry -> {
-                try {
-                    writer.write(entry.getKey());
-                    writer.newLine(); // separate the value and the serialized attributes by a new line
-                    entry.getValue().forEach((k, v) -> {
-                        try {
-                            writer.write(String.valueOf(k));
-                            writer.write(','); // attribute-occurrence separator
-                            writer.write(String.valueOf(v));
-                            writer.write(';'); // attribute-attribute separator
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    });
-                    writer.newLine();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            });
-            writer.close();
+    private void toDisk(Path outputPath, boolean isFinal) throws IOException {
+        try (RecordCodec.Writer writer = codec.writer(outputPath)) {
+            values.writeSorted(writer);
+            values.clear();
+        }
+    }
+
+    /**
+     * Assigns dense ids, starting at one, to pairs of positive ints.
+     */
+    private static final class GroupIds {
+        private long[] keys;
+        private int[] ids;
+        private int size;
+
+        GroupIds(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(16, 2 * expected - 1)) << 1;
+            keys = new long[capacity];
+            ids = new int[capacity];
+        }
 
-            values = new HashMap<>();
-            currentSize = 0;
+        int id(int a, int b) {
+            long key = ((long) a << 32) | b;
+            int mask = keys.length - 1;
+            long hash = key * 0x9E3779B97F4A7C15L;
+            int slot = (int) (hash ^ (hash >>> 32)) & mask;
+            while (keys[slot] != 0L) {
+                if (keys[slot] == key) return ids[slot];
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            ids[slot] = ++size;
+            return size;
+        }
 
-        } catch (IOException e) {
-            e.printStackTrace();
+        int size() {
+            return size;
         }
     }
 }
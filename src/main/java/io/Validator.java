@@ -1,17 +1,18 @@
 package io;
 
-import com.google.common.hash.BloomFilter;
-import com.google.common.hash.Funnels;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import runner.Config;
 import structures.*;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
 
 public class Validator {
     Config config;
@@ -19,148 +20,376 @@ public class Validator {
     Attribute[] attributeIndex;
     Candidates candidates;
     List<ValidationReader> readers;
+    RecordCodec codec;
+    AtomicLongArray uniqueValues;
+    IntPredicate isDependant = id -> attributeIndex[id].getReferenced() != null;
+    // receives every distinct value in the first layer
+    ValueDictionary dictionary;
+    // the value groups of the current round, group g consists of the members groupStarts[g] until groupStarts[g + 1] (exclusive)
+    int groupCount;
+    int[] groupStarts = new int[1];
+    int[] memberReaders = new int[0];
+    int[] memberRecords = new int[0];
 
-    public Validator(Config config, Candidates candidates, int validationSize) throws IOException {
+    /**
+     * @param validationFiles  the sorted files to validate per relation id. A value may occur in several files, even of the same relation.
+     * @param validationSize   the number of records every reader buffers
+     * @param countUniqueValues if true, the unique values of every attribute are counted while validating. This is necessary if the files have not been merged into relation
+     *                          files, since the final merge counts the unique values otherwise.
+     */
+    public Validator(Config config, Candidates candidates, Map<Integer, List<Path>> validationFiles, int validationSize, boolean countUniqueValues) throws IOException {
         this.config = config;
+        this.codec = new RecordCodec(config);
         this.attributeIndex = candidates.current;
         this.candidates = candidates;
-        initReaders(validationSize);
+        if (countUniqueValues) this.uniqueValues = new AtomicLongArray(attributeIndex.length);
+        initReaders(validationFiles, validationSize);
         logger = LoggerFactory.getLogger(Validator.class);
     }
 
-    public BloomFilter<Integer> validate(int layer, BloomFilter<Integer> filter) {
+    /**
+     * Appends every distinct value to the dictionary while validating, which assigns the global value ids.
+     */
+    public void collectValues(ValueDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Validates the candidates of the layer. In the first layer, and in every layer if the filter is refined, the values of all relevant value groups are collected in a new
+     * value filter, which masks the other values in the next layer.
+     *
+     * @param filter the filter of the previous layer, null in the first layer or if no filter is used
+     * @return the filter for the next layer
+     */
+    public ValueFilter validate(int layer, ValueFilter filter) {
+
+        if (config.useFilter && (layer == 1 || config.refineFilter)) {
+            // the sketches are dropped while pruning, which is why the filter is sized first
+            long expectedValues = expectedValues(filter);
+            filter = new ValueFilter(expectedValues, config.filterBitsPerValue);
+            logger.info("Sized the value filter for " + expectedValues + " values with " + filter.sizeInBytes() + " bytes.");
+        }
 
         candidates.calculateViolations(attributeIndex);
 
         candidates.pruneNull(attributeIndex);
 
+        candidates.pruneSketches(attributeIndex);
+
         if (layer > 1) {
             candidates.pruneGlobalUnique(attributeIndex);
         }
 
-        if (config.useFilter && config.refineFilter) {
-            filter = BloomFilter.create(Funnels.integerFunnel(), 100_000_000, 0.05);
+        if (layer == 1) {
+            candidates.buildUnaryBitsets();
+        }
+        // the dictionary needs every value, which is why the validation can not end early while it is collected
+        if (dictionary == null) {
+            closeIrrelevantReaders();
+            for (ValidationReader reader : readers) {
+                reader.skipIrrelevantBlocks(candidates::isRelevant);
+            }
         }
-
         parallelPrune(layer, filter);
+        candidates.dropUnaryBitsets();
+
+        if (uniqueValues != null) {
+            for (int i = 0; i < attributeIndex.length; i++) {
+                attributeIndex[i].getMetadata().uniqueValues += uniqueValues.get(i);
+            }
+        }
 
         return filter;
     }
 
-    private void parallelPrune(int layer, BloomFilter<Integer> filter) {
+    /**
+     * Estimates the number of distinct values, which the filter of this layer can receive. The parts of an n-ary value have all been added to the previous filter, otherwise
+     * the sketches of the attributes are merged. Without sketches the number of values of all attributes is taken.
+     */
+    private long expectedValues(ValueFilter previous) {
+        if (previous != null) {
+            return previous.distinctValues();
+        }
+        ValueSketch values = new ValueSketch();
+        for (Attribute attribute : attributeIndex) {
+            if (attribute.getSketch() == null) {
+                return Arrays.stream(attributeIndex).mapToLong(a -> a.getMetadata().totalValues).sum();
+            }
+            values.merge(attribute.getSketch());
+        }
+        return values.distinctValues();
+    }
+
+    private void parallelPrune(int layer, ValueFilter filter) {
+        long openCandidates = candidates.openCandidates();
         while (!readers.isEmpty()) {
-            String maxValue = updateReaders(); // parallel
-            HashMap<String, StringBuilder> valueGroupMap = new HashMap<>();
+            updateReaders(); // parallel
+            cleanReaders();
+            if (readers.isEmpty()) break;
 
             // single
-            for (ValidationReader reader : readers) {
-                Entry next = reader.queue.poll();
-                while (next != null && next.getValue().compareTo(maxValue) <= 0) {
-                    String connectedAttributes = next.getSerializedAttributes();
-                    valueGroupMap.compute(next.getValue(), (k, v) -> v == null ? new StringBuilder(connectedAttributes) : v.append(connectedAttributes));
-                    next = reader.queue.poll();
-                }
-                if (next != null) {
-                    // if the most recent value is bigger than the biggest safe value, we re-add it to the front of the queue.
-                    reader.queue.addFirst(next);
-                }
+            ValidationReader[] active = readers.toArray(new ValidationReader[0]);
+            int[] safeRecords = countSafeRecords(active);
+            buildValueGroups(active, safeRecords);
+            if (dictionary != null) {
+                addValues(active);
             }
 
             // parallel
-            valueGroupMap.entrySet().stream().parallel().map(group -> {
-                HashMap<Integer, Long> valueGroup = buildAttributeMap(group.getValue().toString());
-                boolean onlyRef = true;
-                Iterator<Integer> keyIterator = valueGroup.keySet().iterator();
-                while (keyIterator.hasNext()) {
-                    Attribute next = attributeIndex[keyIterator.next()];
-                    if (next.getReferenced() != null) {
-                        // If there is at least one attribute from a dependent side, we need to prune the group
-                        onlyRef = false;
-                    } else if (next.getNumReferencedBy() == 0) {
-                        // This attribute neither references another attribute nor is it referenced by any attribute.
-                        keyIterator.remove();
-                    }
-                }
-                if (onlyRef) {
-                    // if we only find attribute that occur as a reference (or are irrelevant) we can skip pruning.
-                    return null;
-                }
-                if (layer == 1) {
-                    return new ValidationTuple(valueGroup, new int[]{group.getKey().hashCode()});
-                } else if (config.refineFilter) {
-                    String raw = group.getKey();
-                    int[] hashes = new int[layer];
-                    int lengthEnc = raw.indexOf('|') + 1;
-                    String[] lengths = raw.substring(0, lengthEnc - 1).split(":");
-                    assert lengths.length == layer - 1;
-                    for (int i = 0; i < layer - 1; i++) {
-                        int valueLength = Integer.parseInt(lengths[i]);
-                        String s = raw.substring(lengthEnc, lengthEnc + valueLength);
-                        hashes[i] = s.hashCode();
-                        lengthEnc += valueLength;
-                    }
-                    String s = raw.substring(lengthEnc);
-                    hashes[layer - 1] = s.hashCode();
-
-                    return new ValidationTuple(valueGroup, hashes);
-                } else {
-                    return new ValidationTuple(valueGroup, null);
-                }
-
-            }).filter(Objects::nonNull).forEach(validationTuple -> {
-                if (config.useFilter && (layer == 1 || config.refineFilter)) {
-                    synchronized (filter) {
-                        for (int hash : validationTuple.hashes()) {
-                            filter.put(hash);
+            List<HashMap<Integer, Long>> valueGroups = IntStream.range(0, groupCount).parallel().mapToObj(group -> buildValidationTuple(active, group, layer))
+                    .filter(Objects::nonNull).map(validationTuple -> {
+                        if (config.useFilter && (layer == 1 || config.refineFilter)) {
+                            // the filter is thread safe and does not need to be locked
+                            for (long hash : validationTuple.hashes()) {
+                                filter.put(hash);
+                            }
                         }
-                    }
+                        return validationTuple.attributeGroup();
+                    }).toList();
+
+            // parallel, every thread prunes its partition of the dependant attributes with all value groups
+            int partitions = config.PARALLEL;
+            IntStream.range(0, partitions).parallel().forEach(partition -> candidates.prune(valueGroups, partition, partitions));
+
+            for (int i = 0; i < active.length; i++) {
+                active[i].consume(safeRecords[i]);
+            }
+
+            // attributes can only become irrelevant, if candidates have been pruned
+            if (dictionary == null && candidates.openCandidates() < openCandidates) {
+                openCandidates = candidates.openCandidates();
+                closeIrrelevantReaders();
+            }
+        }
+    }
+
+    /**
+     * The biggest value which is safe to process is the smallest of all biggest queued values. Every reader might still hold bigger values in its file, which need to be grouped
+     * with values of the other readers in a later round.
+     *
+     * @return the number of queued records per reader, which are not bigger than the biggest safe value.
+     */
+    private int[] countSafeRecords(ValidationReader[] active) {
+        ValidationReader limit = active[0];
+        for (ValidationReader reader : active) {
+            if (reader.compare(reader.queued() - 1, limit, limit.queued() - 1) < 0) limit = reader;
+        }
+        int limitIndex = limit.queued() - 1;
+
+        int[] safeRecords = new int[active.length];
+        for (int i = 0; i < active.length; i++) {
+            // binary search for the first record which is bigger than the limit
+            int low = 0;
+            int high = active[i].queued();
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (active[i].compare(middle, limit, limitIndex) <= 0) low = middle + 1;
+                else high = middle;
+            }
+            safeRecords[i] = low;
+        }
+        return safeRecords;
+    }
+
+    /**
+     * Merges the safe records of all readers by their value. Since every reader is sorted, equal values are adjacent afterwards and form a value group. The groups are stored in
+     * {@link #groupStarts}, {@link #memberReaders} and {@link #memberRecords}, only referencing the records without copying them.
+     */
+    private void buildValueGroups(ValidationReader[] active, int[] safeRecords) {
+        int members = Arrays.stream(safeRecords).sum();
+        if (memberReaders.length < members) {
+            memberReaders = new int[members];
+            memberRecords = new int[members];
+            groupStarts = new int[members + 1];
+        }
+
+        // merge the readers by their current record
+        int[] cursors = new int[active.length];
+        LoserTree tree = new LoserTree(active.length, (a, b) -> active[a].compare(cursors[a], active[b], cursors[b]));
+        for (int i = 0; i < active.length; i++) {
+            if (safeRecords[i] > 0) tree.setHead(i, headPrefix(active[i], 0));
+            else tree.setExhausted(i);
+        }
+        tree.build();
+
+        int memberCount = 0;
+        groupCount = 0;
+        int reader;
+        while ((reader = tree.winner()) >= 0) {
+            if (memberCount == 0 || active[reader].compare(cursors[reader], active[memberReaders[memberCount - 1]], memberRecords[memberCount - 1]) != 0) {
+                groupStarts[groupCount++] = memberCount;
+            }
+            memberReaders[memberCount] = reader;
+            memberRecords[memberCount] = cursors[reader];
+            memberCount++;
+
+            if (++cursors[reader] == safeRecords[reader]) {
+                tree.exhaust();
+            } else {
+                tree.advance(headPrefix(active[reader], cursors[reader]));
+            }
+        }
+        groupStarts[groupCount] = memberCount;
+    }
+
+    private void addValues(ValidationReader[] active) {
+        try {
+            for (int group = 0; group < groupCount; group++) {
+                ValidationReader reader = active[memberReaders[groupStarts[group]]];
+                int record = memberRecords[groupStarts[group]];
+                dictionary.add(reader.buffer(), reader.valueOffset(record), reader.valueLength(record));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static long headPrefix(ValidationReader reader, int record) {
+        return LoserTree.prefix(reader.buffer(), reader.valueOffset(record), reader.valueLength(record));
+    }
+
+    /**
+     * Decodes the attributes of a value group. The attribute ids are scanned in place first, so that the attribute map is only built for groups which need to be pruned.
+     *
+     * @return null if the group does not contain any dependant attribute.
+     */
+    private ValidationTuple buildValidationTuple(ValidationReader[] active, int group, int layer) {
+        int start = groupStarts[group];
+        int end = groupStarts[group + 1];
+
+        if (uniqueValues == null && !containsDependant(active, start, end)) {
+            // if we only find attribute that occur as a reference (or are irrelevant) we can skip pruning.
+            return null;
+        }
+
+        HashMap<Integer, Long> valueGroup = new HashMap<>();
+        for (int member = start; member < end; member++) {
+            ValidationReader reader = active[memberReaders[member]];
+            int record = memberRecords[member];
+            codec.decode(reader.buffer(), reader.attributesOffset(record), reader.attributesLength(record), (id, occurrences) -> valueGroup.merge(id, occurrences, Long::sum));
+        }
+
+        boolean onlyRef = true;
+        Iterator<Integer> keyIterator = valueGroup.keySet().iterator();
+        while (keyIterator.hasNext()) {
+            int id = keyIterator.next();
+            if (uniqueValues != null) uniqueValues.incrementAndGet(id);
+            Attribute next = attributeIndex[id];
+            if (next.getReferenced() != null) {
+                // If there is at least one attribute from a dependent side, we need to prune the group
+                onlyRef = false;
+            } else if (next.getNumReferencedBy() == 0) {
+                // This attribute neither references another attribute nor is it referenced by any attribute.
+                keyIterator.remove();
+            }
+        }
+        if (onlyRef) {
+            return null;
+        }
+
+        if (layer > 1 && !config.refineFilter) {
+            return new ValidationTuple(valueGroup, null);
+        }
+        ValidationReader reader = active[memberReaders[start]];
+        ByteBuffer buffer = reader.buffer();
+        int offset = reader.valueOffset(memberRecords[start]);
+        int length = reader.valueLength(memberRecords[start]);
+        long[] hashes = new long[layer];
+        if (layer > 1 && ValueDictionary.enabled(config)) {
+            // the value is a tuple of (id, hash) pairs, see Sorter#buildValue
+            for (int i = 0; i < layer; i++) {
+                hashes[i] = buffer.getLong(offset + (Integer.BYTES + Long.BYTES) * i + Integer.BYTES);
+            }
+            return new ValidationTuple(valueGroup, hashes);
+        }
+        int[] partLengths = new int[layer - 1];
+        if (layer > 1) {
+            // n-ary values are prefixed with the lengths of all but the last value: len:len|values
+            int position = offset;
+            for (int i = 0; i < layer - 1; i++) {
+                int partLength = 0;
+                byte b;
+                while ((b = buffer.get(position++)) != ':' && b != '|') {
+                    partLength = partLength * 10 + (b - '0');
                 }
-                candidates.prune(validationTuple.attributeGroup());
-            });
-            cleanReaders();
+                partLengths[i] = partLength;
+            }
+            length -= position - offset;
+            offset = position;
         }
+        RecordCodec.valueHashes(buffer, offset, length, partLengths, hashes);
+        return new ValidationTuple(valueGroup, hashes);
+    }
+
+    /**
+     * Scans the attribute ids of a value group in place, without decoding the occurrences into a map.
+     *
+     * @return true if at least one member of the group belongs to a dependant attribute.
+     */
+    private boolean containsDependant(ValidationReader[] active, int start, int end) {
+        for (int member = start; member < end; member++) {
+            ValidationReader reader = active[memberReaders[member]];
+            int record = memberRecords[member];
+            if (codec.anyAttribute(reader.buffer(), reader.attributesOffset(record), reader.attributesLength(record), isDependant)) return true;
+        }
+        return false;
     }
 
     /**
      * updates every reader that was used in last value group
      */
-    private String updateReaders() {
+    private void updateReaders() {
         // load the new values in parallel
-        return readers.stream().parallel().map(ValidationReader::update).min(String::compareTo).orElse(null);
+        readers.stream().parallel().forEach(ValidationReader::update);
     }
 
-    private void cleanReaders() {
+    /**
+     * Closes the readers of all relations, which do not hold any relevant attribute anymore (see {@link Candidates#isRelevant(int)}). Once every candidate has been pruned, this
+     * closes all readers and the validation of the layer ends.
+     * <p>
+     * Skipping the remaining values of these relations does not change the result: Their attributes would be dropped from every value group, which also leaves the value filter
+     * unchanged. The unique values of these attributes are only counted up to this point, but they are not needed once the violations have been calculated.
+     */
+    private void closeIrrelevantReaders() {
+        boolean[] relevant = new boolean[readers.stream().mapToInt(reader -> reader.relationId).max().orElse(-1) + 1];
+        for (int id = 0; id < attributeIndex.length; id++) {
+            int relationId = attributeIndex[id].getRelationId();
+            if (relationId < relevant.length && !relevant[relationId] && candidates.isRelevant(id)) relevant[relationId] = true;
+        }
+        int closed = 0;
         Iterator<ValidationReader> it = readers.iterator();
         while (it.hasNext()) {
             ValidationReader next = it.next();
-            if (next.finished && next.queue.isEmpty()) {
+            if (!relevant[next.relationId]) {
                 next.close();
                 it.remove();
+                closed++;
             }
         }
+        if (closed > 0) logger.debug("Closed " + closed + " readers without relevant attributes, " + readers.size() + " readers remain.");
     }
 
-    private void initReaders(int validationSize) throws IOException {
-        List<Integer> relations = Arrays.stream(attributeIndex).mapToInt(Attribute::getRelationId).distinct().boxed().toList();
-        readers = new ArrayList<>();
-        for (int relation : relations) {
-            String relationPath = config.tempFolder + File.separator + "relation_" + relation + ".txt";
-            // in a rare edge case, a relation file might not exist. This can happen if the relation is only used in dependant sides of all-null references and the filter masks
-            // all values. Therefor the sorting process finishes without a single value (which is correct) and no relation is created while merging.
-            if (Files.exists(Path.of(relationPath))) readers.add(new ValidationReader(relationPath, validationSize));
+    private void cleanReaders() {
+        Iterator<ValidationReader> it = readers.iterator();
+        while (it.hasNext()) {
+            ValidationReader next = it.next();
+            if (next.finished && next.isEmpty()) {
+                next.close();
+                it.remove();
+            }
         }
     }
 
-    private HashMap<Integer, Long> buildAttributeMap(String serializedAttributes) {
-        HashMap<Integer, Long> connectedAttributes = new HashMap<>();
-        String[] attributes = serializedAttributes.split(";");
-        for (String attribute : attributes) {
-            String[] idOccurrenceTuple = attribute.split(",");
-            if (idOccurrenceTuple.length != 2) {
-                continue;
+    private void initReaders(Map<Integer, List<Path>> validationFiles, int validationSize) throws IOException {
+        readers = new ArrayList<>();
+        // the text format can not be read in place and is therefore always streamed
+        boolean mapped = config.mappedValidation && codec.supportsMapping();
+        for (Map.Entry<Integer, List<Path>> relationFiles : validationFiles.entrySet()) {
+            for (Path validationFile : relationFiles.getValue()) {
+                // in a rare edge case, a relation file might not exist. This can happen if the relation is only used in dependant sides of all-null references and the filter
+                // masks all values. Therefor the sorting process finishes without a single value (which is correct) and no relation is created while merging.
+                if (Files.exists(validationFile)) readers.add(new ValidationReader(validationFile.toString(), relationFiles.getKey(), validationSize, codec, mapped));
             }
-            connectedAttributes.put(Integer.valueOf(idOccurrenceTuple[0]), Long.valueOf(idOccurrenceTuple[1]));
         }
-        return connectedAttributes;
     }
 }
@@ -0,0 +1,203 @@
+package io;
+
+import runner.Config;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The value dictionary assigns a global id to every distinct value of the first layer. The validation of the first layer visits every value of every relation exactly once and
+ * in sorted order, which is why it appends all values to the dictionary. The id of a value is its position in the dictionary, starting at one. Therefore, the ids are ordered
+ * like the values themselves.
+ * <p>
+ * The values are written to disk in blocks of {@link #BLOCK_SIZE} values. Only the first value of every block is kept in memory. Looking up a value finds its block by a
+ * binary search over these values and then reads the block from disk. The cached columns look up their dictionaries once, see {@link ColumnCache.Column#assignIds}, after
+ * which the dictionary is no longer needed.
+ */
+public class ValueDictionary {
+    private static final int BLOCK_SIZE = 64;
+    private final Path path;
+    private OutputStream output;
+    private FileChannel channel;
+    private long position;
+    private int size;
+    // the file offset of every block
+    private long[] blockOffsets = new long[16];
+    // the first value of block b is firstValues[firstOffsets[b], firstOffsets[b + 1])
+    private byte[] firstValues = new byte[1 << 10];
+    private int[] firstOffsets = new int[17];
+    private byte[] scratch = new byte[64];
+
+    public ValueDictionary(Path path) throws IOException {
+        this.path = path;
+        this.output = new BufferedOutputStream(Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING), 1 << 16);
+    }
+
+    /**
+     * N-ary values are only encoded with global ids, if the relations are cached column wise and the records are binary. The text format can not hold arbitrary bytes.
+     */
+    public static boolean enabled(Config config) {
+        return config.globalValueIds && config.columnarCache && config.spillFormat == Config.SpillFormat.BINARY && config.maxNary != 1;
+    }
+
+    /**
+     * Appends the next value, which needs to be bigger than all previous values.
+     */
+    public void add(ByteBuffer buffer, int offset, int length) throws IOException {
+        if (length > scratch.length) scratch = new byte[Math.max(length, 2 * scratch.length)];
+        buffer.get(offset, scratch, 0, length);
+
+        if (size % BLOCK_SIZE == 0) {
+            int block = size / BLOCK_SIZE;
+            if (block + 1 >= blockOffsets.length) {
+                blockOffsets = Arrays.copyOf(blockOffsets, 2 * blockOffsets.length);
+                firstOffsets = Arrays.copyOf(firstOffsets, 2 * firstOffsets.length + 1);
+            }
+            int firstsLength = firstOffsets[block];
+            if (firstsLength + length > firstValues.length) {
+                firstValues = Arrays.copyOf(firstValues, Math.max(2 * firstValues.length, firstsLength + length));
+            }
+            System.arraycopy(scratch, 0, firstValues, firstsLength, length);
+            firstOffsets[block + 1] = firstsLength + length;
+            blockOffsets[block] = position;
+        }
+
+        // [varint length][value bytes]
+        int value = length;
+        while ((value & ~0x7F) != 0) {
+            output.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+            position++;
+        }
+        output.write(value);
+        output.write(scratch, 0, length);
+        position += 1 + length;
+        size++;
+    }
+
+    /**
+     * Finishes writing, afterwards values can be looked up.
+     */
+    public void finish() throws IOException {
+        output.close();
+        output = null;
+        int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        if (blocks >= blockOffsets.length) blockOffsets = Arrays.copyOf(blockOffsets, blocks + 1);
+        blockOffsets[blocks] = position;
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    /**
+     * @return the number of values.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Looks up the ids of the dictionary entries of a cached column. The entries are looked up in sorted order, so that every block is read at most once.
+     *
+     * @return the id of every code, the null code keeps the id 0.
+     * @throws IllegalStateException if an entry is not contained in the dictionary.
+     */
+    public int[] ids(ColumnCache.Column column) throws IOException {
+        int entries = column.entries();
+        Integer[] order = new Integer[entries];
+        for (int i = 0; i < entries; i++) {
+            order[i] = i + 1;
+        }
+        Arrays.sort(order, (a, b) -> RecordCodec.compare(column.values, column.offsets[a], column.offsets[a + 1] - column.offsets[a], column.values, column.offsets[b],
+                column.offsets[b + 1] - column.offsets[b]));
+
+        int[] ids = new int[entries + 1];
+        int currentBlock = -1;
+        byte[] block = new byte[0];
+        int[] valueStarts = new int[BLOCK_SIZE];
+        int[] valueEnds = new int[BLOCK_SIZE];
+        int blockSize = 0;
+        for (int code : order) {
+            int offset = column.offsets[code];
+            int length = column.offsets[code + 1] - offset;
+            int blockIndex = findBlock(column.values, offset, length);
+            if (blockIndex != currentBlock) {
+                currentBlock = blockIndex;
+                block = readBlock(blockIndex, block);
+                blockSize = parseBlock(block, (int) (blockOffsets[blockIndex + 1] - blockOffsets[blockIndex]), valueStarts, valueEnds);
+            }
+            int id = 0;
+            for (int i = 0; i < blockSize; i++) {
+                if (Arrays.equals(block, valueStarts[i], valueEnds[i], column.values, offset, offset + length)) {
+                    id = currentBlock * BLOCK_SIZE + i + 1;
+                    break;
+                }
+            }
+            if (id == 0) throw new IllegalStateException("The value dictionary does not contain a cached value");
+            ids[code] = id;
+        }
+        return ids;
+    }
+
+    /**
+     * @return the last block whose first value is not bigger than the given value.
+     */
+    private int findBlock(byte[] value, int offset, int length) {
+        int low = 0;
+        int high = (size + BLOCK_SIZE - 1) / BLOCK_SIZE - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (RecordCodec.compare(firstValues, firstOffsets[middle], firstOffsets[middle + 1] - firstOffsets[middle], value, offset, length) <= 0) low = middle;
+            else high = middle - 1;
+        }
+        return low;
+    }
+
+    private byte[] readBlock(int block, byte[] buffer) throws IOException {
+        int length = (int) (blockOffsets[block + 1] - blockOffsets[block]);
+        if (length > buffer.length) buffer = new byte[Math.max(length, 2 * buffer.length)];
+        ByteBuffer target = ByteBuffer.wrap(buffer, 0, length);
+        while (target.hasRemaining()) {
+            if (channel.read(target, blockOffsets[block] + target.position()) < 0) throw new IOException("Unexpected end of the value dictionary");
+        }
+        return buffer;
+    }
+
+    /**
+     * Finds the bytes of every value in a block.
+     *
+     * @return the number of values in the block.
+     */
+    private static int parseBlock(byte[] block, int length, int[] valueStarts, int[] valueEnds) {
+        int count = 0;
+        int position = 0;
+        while (position < length) {
+            int valueLength = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = block[position++];
+                valueLength |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            valueStarts[count] = position;
+            position += valueLength;
+            valueEnds[count++] = position;
+        }
+        return count;
+    }
+
+    /**
+     * Closes and deletes the dictionary.
+     */
+    public void delete() throws IOException {
+        if (output != null) output.close();
+        if (channel != null) channel.close();
+        Files.deleteIfExists(path);
+    }
+}
@@ -10,7 +10,11 @@ public class Config {
     public int VALIDATION_SIZE = 50_000;
     public int MERGE_SIZE = 500;
     public int CHUNK_SIZE = 6_000_000;
-    public int SORT_SIZE = 10_000_000;
+    public int SORT_SIZE = 10_000_000; // only used if adaptiveSpilling is disabled
+    public boolean autoTune = false; // whether CHUNK_SIZE, SORT_SIZE, MERGE_SIZE and VALIDATION_SIZE are chosen by profiling the input instead of using the values above
+    public boolean adaptiveSpilling = true; // whether the sorters spill based on a memory budget shared by all running sorters instead of a fixed SORT_SIZE
+    public long sortMemory = 0L; // the shared memory budget of the sorters in bytes, 0 derives it from the heap using sortMemoryFraction
+    public double sortMemoryFraction = 0.4; // the fraction of the maximal heap size, which the sorters may use together
     public int maxNary = -1;
     public String databaseName;
     public String[] tableNames;
@@ -26,15 +30,26 @@ public class Config {
     public boolean ignoreLeadingWhiteSpace = true;
     public boolean inputFileHasHeader = true;
     public boolean inputFileSkipDifferingLines = true; // Skip lines that differ from the dataset's schema
+    public boolean byteParser = true; // whether the relation files are split by the byte-level RecordParser instead of opencsv, only possible if the separator, quote and escape characters are ASCII
     public String nullString = "";
     public boolean writeResults = true;
     public String executionName = "SPIND";
 
     public DuplicateHandling duplicateHandling = DuplicateHandling.AWARE;
     public NullHandling nullHandling = NullHandling.SUBSET;
+    public SpillFormat spillFormat = SpillFormat.BINARY; // TEXT writes human-readable sort, merge and relation files, which is only useful for debugging
 
     public boolean refineFilter = true; // whether the bloom filter should be reconstructed in every layer
     public boolean useFilter = true; // whether the bloom filter should be used
+    public int filterBitsPerValue = 16; // the size of the bloom filter per expected distinct value, 16 bits give a false positive rate of about 0.1%
+    public boolean pipelineValidation = true; // whether the last merge round feeds the validation directly instead of writing relation files, only possible in AWARE mode
+    public boolean mappedValidation = true; // whether the relation files are memory-mapped during validation, only possible for the BINARY spill format
+    public boolean columnarCache = true; // whether the first layer caches the relations column wise, so that later layers do not need to parse the relation files again
+    public boolean globalValueIds = true; // whether n-ary values are encoded as tuples of global value ids, only possible with the columnar cache and the BINARY spill format
+    public boolean blockSummaries = true; // whether every record file lists the attributes of its blocks, so that the validation can skip blocks without relevant attributes
+    public boolean sketchPruning = true; // whether the sorters sketch the values of every attribute, so that candidates, which provably have too many violations, are dropped before the validation
+    public boolean compressTempFiles = false; // whether the sort, merge, relation and column cache files are compressed block wise, which trades CPU time for temp I/O and space
+    public int compressionBlockSize = 1 << 16; // the number of uncompressed bytes, which are compressed together
 
     public Config(double threshold) {
         this.threshold = threshold;
@@ -278,4 +293,8 @@ public class Config {
     public enum DuplicateHandling {
         AWARE, UNAWARE
     }
+
+    public enum SpillFormat {
+        BINARY, TEXT
+    }
 }
\ No newline at end of file
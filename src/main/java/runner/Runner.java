@@ -20,6 +20,10 @@ public class Runner {
             config.MERGE_SIZE = Integer.parseInt(args[2]);
             config.VALIDATION_SIZE = Integer.parseInt(args[3]);
             System.out.println("Used args to set variables");
+        } else if (args.length == 1 && args[0].equals("--auto-tune")) {
+            // the sizes are planned from a sample of the input, see Config#autoTune
+            config.autoTune = true;
+            System.out.println("Used --auto-tune to plan the variables");
         }
 
         config.setDataset("path_to_folder");
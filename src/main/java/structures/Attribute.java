@@ -15,6 +15,8 @@ public class Attribute {
     long currentOccurrences;
     PINDList referenced;
     Metadata metadata;
+    // the sketch of the values, which have been sorted in the current layer. Null if the candidates are not pruned by sketches.
+    ValueSketch sketch;
 
     public Attribute(int id, int relationId, int[] containedColumns) {
         this.id = id;
@@ -26,7 +28,8 @@ public class Attribute {
     @Override
     public boolean equals(Object o) {
         if (o == null || getClass() != o.getClass()) return false;
-        return this.toString().equals(o.toString());
+        Attribute attribute = (Attribute) o;
+        return relationId == attribute.relationId && Arrays.equals(containedColumns, attribute.containedColumns);
     }
 
     @Override
@@ -5,6 +5,8 @@ import org.slf4j.LoggerFactory;
 import runner.Config;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
 
 /**
  * Manages candidate creation and pruning.
@@ -13,44 +15,183 @@ public class Candidates {
     private final Config config;
     private final Logger logger = LoggerFactory.getLogger(Candidates.class);
     public Attribute[] current;
-    HashMap<Integer, HashMap<Integer, HashMap<Integer, List<Integer>>>> unary;
-    private int nextAttributeId;
+    // the unary pINDs, see storeUnary
+    private int[] unaryStarts;
+    private int[] unaryReferenced;
+    // the id of the first unary attribute and the number of columns of every relation
+    private int[] relationOffsets;
+    private int[] relationColumns;
+    // the sorted keys of the attributes of layer 2 and up, the position of a key is the id of its attribute, see generateNextLayer
+    private final List<long[]> attributeKeys = new ArrayList<>();
+    // the number of candidates of the current layer, which have not been pruned yet
+    private final AtomicLong openCandidates = new AtomicLong();
+    // layer 1 only: the bitsets of the open referenced ids and of the ids the referenced lists held, when the bitsets were built, per dependant attribute
+    private long[][] openUnary;
+    private long[][] listedUnary;
+    // the number of ids in listedUnary[dependant] before word w, which is the list position of the first of these ids
+    private int[][] listedRanks;
 
     public Candidates(Config config) {
         this.config = config;
     }
 
     /**
-     * Prunes the current candidates
+     * Prunes the current candidates with the value groups of a validation round. The dependant attributes are partitioned by their id, and every partition is pruned by a
+     * single thread, which applies all value groups to its dependant attributes. This way, the partitions can be pruned in parallel without locking the candidates, since only
+     * the thread of a partition touches the referenced lists of its attributes.
      *
-     * @param valueGroup the group of attributes which all share some value.
+     * @param valueGroups the groups of attributes which all share some value.
+     * @param partition   the partition of the dependant attributes, which are pruned.
+     * @param partitions  the number of partitions.
      */
-    public synchronized void prune(Map<Integer, Long> valueGroup) {
-        for (int dependantAttributeId : valueGroup.keySet()) {
-            if (current[dependantAttributeId].getReferenced() == null) {
-                // the attribute does not depend on any other attribute.
+    public void prune(List<? extends Map<Integer, Long>> valueGroups, int partition, int partitions) {
+        if (openUnary != null) {
+            pruneUnary(valueGroups, partition, partitions);
+            return;
+        }
+        for (Map<Integer, Long> valueGroup : valueGroups) {
+            for (int dependantAttributeId : valueGroup.keySet()) {
+                if (dependantAttributeId % partitions != partition || current[dependantAttributeId].getReferenced() == null) {
+                    // the attribute belongs to another partition or does not depend on any other attribute.
+                    continue;
+                }
+                long occurrences;
+                if (config.duplicateHandling == Config.DuplicateHandling.AWARE) {
+                    occurrences = valueGroup.get(dependantAttributeId);
+                } else {
+                    occurrences = 1L;
+                }
+                PINDList.PINDIterator referenced = current[dependantAttributeId].getReferenced().elementIterator();
+                while (referenced.hasNext()) {
+                    PINDList.PINDElement referencedAttribute = referenced.next();
+                    int referencedId = referencedAttribute.getId();
+                    // if the valueGroup includes the referenced Attribute: no violation
+                    if (valueGroup.containsKey(referencedId)) continue;
+
+                    // not null since we iterate over the key set
+                    if (referencedAttribute.violate(occurrences) < 0L) {
+                        referenced.remove();
+                        removeReference(referencedId);
+                    }
+                }
+                if (current[dependantAttributeId].getReferenced().isEmpty()) {
+                    current[dependantAttributeId].setReferenced(null);
+                }
+            }
+        }
+    }
+
+    /**
+     * The referenced attribute may be referenced by dependant attributes of other partitions, which is why its counter is locked.
+     */
+    private void removeReference(int referencedId) {
+        Attribute referenced = current[referencedId];
+        synchronized (referenced) {
+            referenced.numReferencedBy--;
+        }
+        openCandidates.decrementAndGet();
+    }
+
+    /**
+     * @return the number of candidates, which have not been pruned since their violations were calculated.
+     */
+    public long openCandidates() {
+        return openCandidates.get();
+    }
+
+    /**
+     * An attribute is relevant for the validation, as long as it is a dependant attribute or referenced by one. The values of all other attributes can not change the result
+     * anymore. A dependant attribute stays relevant, even if all of its candidates have been pruned by the null handling, since its values are still added to the filter.
+     */
+    public boolean isRelevant(int attributeId) {
+        return current[attributeId].getReferenced() != null || current[attributeId].numReferencedBy > 0;
+    }
+
+    /**
+     * Builds the bitsets for the unary pruning. In the first layer, nearly every attribute references every other attribute, which makes walking the referenced lists and
+     * looking up every referenced id in the value group expensive. Instead, the value group is turned into a bitset as well and the violated candidates of a dependant
+     * attribute are its open candidates and-not the value group.
+     * <p>
+     * The referenced lists stay the owner of the violations. They are compacted beforehand and hold their ids in ascending order, so the list position of a referenced id is
+     * the number of smaller ids in the list. Removed entries are only marked, which keeps these positions stable until the bitsets are dropped.
+     */
+    public void buildUnaryBitsets() {
+        int words = (current.length + 63) >>> 6;
+        openUnary = new long[current.length][];
+        listedUnary = new long[current.length][];
+        listedRanks = new int[current.length][];
+        for (int dependantId = 0; dependantId < current.length; dependantId++) {
+            PINDList referenced = current[dependantId].getReferenced();
+            if (referenced == null) {
                 continue;
             }
-            long occurrences;
-            if (config.duplicateHandling == Config.DuplicateHandling.AWARE) {
-                occurrences = valueGroup.get(dependantAttributeId);
-            } else {
-                occurrences = 1L;
+            referenced.compact();
+            long[] listed = new long[words];
+            int previous = -1;
+            for (int position = 0; position < referenced.size(); position++) {
+                int referencedId = referenced.idAt(position);
+                assert referencedId > previous;
+                previous = referencedId;
+                listed[referencedId >>> 6] |= 1L << referencedId;
             }
-            PINDList.PINDIterator referenced = current[dependantAttributeId].getReferenced().elementIterator();
-            while (referenced.hasNext()) {
-                PINDList.PINDElement referencedAttribute = referenced.next();
-                // if the valueGroup includes the referenced Attribute: no violation
-                if (valueGroup.containsKey(referencedAttribute.id)) continue;
+            int[] ranks = new int[words];
+            for (int word = 1; word < words; word++) {
+                ranks[word] = ranks[word - 1] + Long.bitCount(listed[word - 1]);
+            }
+            openUnary[dependantId] = listed.clone();
+            listedUnary[dependantId] = listed;
+            listedRanks[dependantId] = ranks;
+        }
+    }
 
-                // not null since we iterate over the key set
-                if (referencedAttribute.violate(occurrences) < 0L) {
-                    referenced.remove();
-                    current[referencedAttribute.id].numReferencedBy--;
+    /**
+     * Drops the bitsets, afterward the candidates are pruned through their referenced lists again.
+     */
+    public void dropUnaryBitsets() {
+        openUnary = null;
+        listedUnary = null;
+        listedRanks = null;
+    }
+
+    private void pruneUnary(List<? extends Map<Integer, Long>> valueGroups, int partition, int partitions) {
+        // the attributes of the value group which is pruned
+        long[] groupBits = new long[(current.length + 63) >>> 6];
+        for (Map<Integer, Long> valueGroup : valueGroups) {
+            for (int attributeId : valueGroup.keySet()) {
+                groupBits[attributeId >>> 6] |= 1L << attributeId;
+            }
+            for (Map.Entry<Integer, Long> member : valueGroup.entrySet()) {
+                int dependantId = member.getKey();
+                long[] open = openUnary[dependantId];
+                if (dependantId % partitions != partition || open == null) {
+                    // the attribute belongs to another partition or does not depend on any other attribute.
+                    continue;
+                }
+                long occurrences = config.duplicateHandling == Config.DuplicateHandling.AWARE ? member.getValue() : 1L;
+                PINDList referenced = current[dependantId].getReferenced();
+                long[] listed = listedUnary[dependantId];
+                int[] ranks = listedRanks[dependantId];
+                for (int word = 0; word < open.length; word++) {
+                    // the open candidates, which are not part of the value group
+                    long violated = open[word] & ~groupBits[word];
+                    while (violated != 0L) {
+                        long bit = violated & -violated;
+                        violated ^= bit;
+                        int position = ranks[word] + Long.bitCount(listed[word] & (bit - 1));
+                        if (referenced.violateAt(position, occurrences) < 0L) {
+                            referenced.removeAt(position);
+                            open[word] ^= bit;
+                            removeReference((word << 6) + Long.numberOfTrailingZeros(bit));
+                        }
+                    }
+                }
+                if (referenced.isEmpty()) {
+                    current[dependantId].setReferenced(null);
+                    openUnary[dependantId] = null;
                 }
             }
-            if (current[dependantAttributeId].getReferenced().isEmpty()) {
-                current[dependantAttributeId].setReferenced(null);
+            for (int attributeId : valueGroup.keySet()) {
+                groupBits[attributeId >>> 6] = 0L;
             }
         }
     }
@@ -61,18 +202,17 @@ public class Candidates {
      * @return A list of all Attributes, which are present in at least one candidate pair.
      */
     public Attribute[] generateNextLayer(Attribute[] attributes, RelationMetadata[] relationMetadata, int layer) {
-        HashMap<String, Set<String>> lookUp;
+        LongIntMap lookUp;
         if (layer == 1) {
             // safe unary attributes
             storeUnary(attributes, relationMetadata);
-            lookUp = new HashMap<>();
+            lookUp = new LongIntMap();
         } else {
-            lookUp = createLookUps(attributes);
+            lookUp = createLookUps();
         }
         // generate next layer by the method proposed in the BINDER paper
-        HashMap<Attribute, Integer> nextAttributes = new HashMap<>();
-        HashMap<Integer, PINDList> nextCandidates = new HashMap<>();
-        this.nextAttributeId = 0;
+        // every dependant attribute collects its candidates in its own buffer, as pairs of the keys of the dependant and the referenced attribute, see generateAttributes
+        long[][] expansions = new long[current.length][];
         Arrays.stream(current).parallel().forEach(naryDepAttribute -> {
 
             int naryDepId = naryDepAttribute.id;
@@ -87,37 +227,46 @@ public class Candidates {
             }
 
             int depRelationId = naryDepAttribute.getRelationId();
+            int depOffset = relationOffsets[depRelationId];
+            int[] naryDepColumns = naryDepAttribute.getContainedColumns();
+            long[] buffer = new long[16];
+            int size = 0;
             // condition 1: the expansion needs to be from the same relation
-            for (int unaryDepColumn : unary.get(depRelationId).keySet()) {
-                // condition 2/3: the position of the expansion must be greater than all already contained ids
-                if (unaryDepColumn <= Arrays.stream(naryDepAttribute.getContainedColumns()).max().orElse(-1)) {
+            // condition 2/3: the position of the expansion must be greater than all already contained ids
+            for (int unaryDepColumn = max(naryDepColumns) + 1; unaryDepColumn < relationColumns[depRelationId]; unaryDepColumn++) {
+                int unaryDepId = depOffset + unaryDepColumn;
+                int from = unaryStarts[unaryDepId];
+                int to = unaryStarts[unaryDepId + 1];
+                if (from == to) {
                     continue;
                 }
 
                 PINDList.PINDIterator naryRef = current[naryDepId].getReferenced().elementIterator();
                 while (naryRef.hasNext()) {
-                    int naryRefId = naryRef.next().id;
+                    int naryRefId = naryRef.next().getId();
                     Attribute naryRefAttribute = attributes[naryRefId];
                     int refRelationId = naryRefAttribute.getRelationId();
+                    int refOffset = relationOffsets[refRelationId];
+                    int[] naryRefColumns = naryRefAttribute.getContainedColumns();
 
                     // condition 1: the referenced expansion needs to be from the same relation as the nary referenced attribute
-                    if (!unary.get(depRelationId).get(unaryDepColumn).containsKey(refRelationId)) {
-                        continue;
-                    }
+                    int first = lowerBound(unaryReferenced, from, to, refOffset);
+                    int last = lowerBound(unaryReferenced, first, to, refOffset + relationColumns[refRelationId]);
 
-                    for (int unaryRefColumn : unary.get(depRelationId).get(unaryDepColumn).get(refRelationId)) {
+                    for (int position = first; position < last; position++) {
+                        int unaryRefColumn = unaryReferenced[position] - refOffset;
 
                         // condition 3: the expansion cannot be in the set that should be expanded.
-                        if (Arrays.stream(naryRefAttribute.getContainedColumns()).anyMatch(x -> x == unaryRefColumn)) {
+                        if (contains(naryRefColumns, unaryRefColumn)) {
                             continue;
                         }
 
                         // the two expansions cannot overlap
                         if (refRelationId == depRelationId) {
-                            if (Arrays.stream(naryDepAttribute.getContainedColumns()).anyMatch(x -> x == unaryRefColumn)) {
+                            if (contains(naryDepColumns, unaryRefColumn)) {
                                 continue;
                             }
-                            if (Arrays.stream(naryRefAttribute.getContainedColumns()).anyMatch(x -> x == unaryDepColumn)) {
+                            if (contains(naryRefColumns, unaryDepColumn)) {
                                 continue;
                             }
                             if (unaryRefColumn == unaryDepColumn) {
@@ -125,100 +274,125 @@ public class Candidates {
                             }
                         }
 
-                        int[] dependantColumns = Arrays.copyOf(naryDepAttribute.containedColumns, layer + 1);
-                        dependantColumns[layer] = unaryDepColumn;
-
-                        int[] referencedColumns = Arrays.copyOf(naryRefAttribute.containedColumns, layer + 1);
-                        referencedColumns[layer] = unaryRefColumn;
-
-                        if (layer > 1 && !possibleCandidate(dependantColumns, referencedColumns, depRelationId, refRelationId, lookUp, layer)) {
+                        if (layer > 1 && !possibleCandidate(naryDepColumns, unaryDepColumn, naryRefColumns, unaryRefColumn, depRelationId, refRelationId, lookUp, layer)) {
                             continue;
                         }
 
                         // valid candidate found
-                        synchronized (nextAttributes) {
-                            synchronized (nextCandidates) {
-                                Attribute dependant = generateAttribute(naryDepAttribute, unaryDepColumn, nextAttributes);
-
-                                Attribute referenced = generateAttribute(naryRefAttribute, unaryRefColumn, nextAttributes);
-
-                                PINDList referencedList = nextCandidates.computeIfAbsent(dependant.getId(), k -> new PINDList());
-                                referencedList.add(referenced.getId(), 0); // violations are handled elsewhere
-                            }
+                        if (size == buffer.length) {
+                            buffer = Arrays.copyOf(buffer, size * 2);
                         }
+                        buffer[size++] = LongIntMap.key(naryDepId, unaryDepColumn);
+                        buffer[size++] = LongIntMap.key(naryRefId, unaryRefColumn);
                     }
 
                 }
             }
+            if (size > 0) {
+                expansions[naryDepId] = Arrays.copyOf(buffer, size);
+            }
         });
-        return constructIndices(nextAttributes, nextCandidates);
+        return generateAttributes(attributes, expansions, layer);
     }
 
     /**
-     * This method is called once the set of nextAttributes has been constructed. It handles an id reshuffling such that all attributes which are present on any left-hand side
-     * are assigned strictly smaller ids than attributes which are only present in left-hand sides. This process safes some memory and is computationally easy to handle.
+     * An attribute of the next layer is identified by the key of the id of the nary attribute it expands and the expansion column. The nary attribute already identifies the
+     * relation and all other columns, which is why the key is unique and no other representation of the attribute is needed.
+     * <p>
+     * The id of an attribute is the position of its key among the sorted keys of all attributes of the next layer. This way, the ids do not depend on the order in which the
+     * candidates were generated, and the attributes and their referenced lists can be built in parallel: the dependant attributes of a buffer all expand the same nary
+     * attribute, so no other buffer adds to their referenced lists.
      *
-     * @param nextAttributes The next attributes as a map Attribute -> Attribute id
-     * @param nextCandidates The next candidates as a map dependant id -> List of referenced ids
+     * @param expansions the buffer of every dependant attribute of the current layer or null
      * @return The attribute index for the next layer
      */
-    private Attribute[] constructIndices(HashMap<Attribute, Integer> nextAttributes, HashMap<Integer, PINDList> nextCandidates) {
-        Attribute[] nextAttributeIndex = new Attribute[nextAttributeId];
-        for (Attribute attribute : nextAttributes.keySet()) {
-            int id = attribute.getId();
-            nextAttributeIndex[id] = attribute;
-            nextAttributeIndex[id].setReferenced(nextCandidates.getOrDefault(id, null));
+    private Attribute[] generateAttributes(Attribute[] attributes, long[][] expansions, int layer) {
+        long[][] bufferKeys = new long[expansions.length][];
+        IntStream.range(0, expansions.length).parallel().filter(naryDepId -> expansions[naryDepId] != null).forEach(naryDepId -> {
+            long[] keys = expansions[naryDepId].clone();
+            Arrays.sort(keys);
+            bufferKeys[naryDepId] = distinct(keys);
+        });
+        long[] keys = new long[Arrays.stream(bufferKeys).filter(Objects::nonNull).mapToInt(x -> x.length).sum()];
+        int size = 0;
+        for (long[] buffer : bufferKeys) {
+            if (buffer == null) continue;
+            System.arraycopy(buffer, 0, keys, size, buffer.length);
+            size += buffer.length;
         }
+        Arrays.parallelSort(keys);
+        long[] nextKeys = distinct(keys);
+
+        Attribute[] nextAttributeIndex = new Attribute[nextKeys.length];
+        IntStream.range(0, nextKeys.length).parallel().forEach(id -> {
+            Attribute naryAttribute = attributes[(int) (nextKeys[id] >>> 32)];
+            int[] containedColumns = Arrays.copyOf(naryAttribute.getContainedColumns(), naryAttribute.getContainedColumns().length + 1);
+            containedColumns[containedColumns.length - 1] = (int) nextKeys[id];
+            nextAttributeIndex[id] = new Attribute(id, naryAttribute.getRelationId(), containedColumns);
+        });
+        IntStream.range(0, expansions.length).parallel().filter(naryDepId -> expansions[naryDepId] != null).forEach(naryDepId -> {
+            long[] buffer = expansions[naryDepId];
+            for (int i = 0; i < buffer.length; i += 2) {
+                Attribute dependant = nextAttributeIndex[Arrays.binarySearch(nextKeys, buffer[i])];
+                if (dependant.getReferenced() == null) {
+                    dependant.setReferenced(new PINDList());
+                }
+                dependant.getReferenced().add(Arrays.binarySearch(nextKeys, buffer[i + 1]), 0); // violations are handled elsewhere
+            }
+        });
+
+        // the keys of the next layer are needed to look up its attributes, when the layer after it is generated
+        attributeKeys.subList(Math.min(layer - 1, attributeKeys.size()), attributeKeys.size()).clear();
+        attributeKeys.add(nextKeys);
         current = nextAttributeIndex;
         return nextAttributeIndex;
     }
 
-    private HashMap<String, Set<String>> createLookUps(Attribute[] attributes) {
-        HashMap<String, Set<String>> lookup = new HashMap<>(current.length);
+    /**
+     * @return the distinct values of the sorted array, which is reused if it does not contain any duplicates.
+     */
+    private static long[] distinct(long[] sorted) {
+        int size = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (size == 0 || sorted[i] != sorted[size - 1]) {
+                sorted[size++] = sorted[i];
+            }
+        }
+        return size == sorted.length ? sorted : Arrays.copyOf(sorted, size);
+    }
+
+    /**
+     * @return the set of the current pINDs, every pIND is stored as the key of its dependant and referenced id.
+     */
+    private LongIntMap createLookUps() {
+        LongIntMap lookup = new LongIntMap(current.length);
         for (int depId = 0; depId < current.length; depId++) {
 
             if (current[depId].getReferenced() == null) {
                 continue;
             }
 
-            String depString = attributes[depId].toString();
-            HashSet<String> depSet = new HashSet<>();
             PINDList.PINDIterator referencedList = current[depId].getReferenced().elementIterator();
             while (referencedList.hasNext()) {
-                int refId = referencedList.next().id;
-                String refString = attributes[refId].toString();
-                depSet.add(refString);
+                int refId = referencedList.next().getId();
+                lookup.putIfAbsent(LongIntMap.key(depId, refId), 0);
             }
-            lookup.put(depString, depSet);
         }
         return lookup;
     }
 
-    private boolean possibleCandidate(int[] dependantColumns, int[] referencedColumns, int depRelationId, int refRelationId, HashMap<String, Set<String>> lookup, int layer) {
+    /**
+     * The columns of the candidate are the columns of the nary attributes followed by the unary expansions.
+     */
+    private boolean possibleCandidate(int[] naryDepColumns, int unaryDepColumn, int[] naryRefColumns, int unaryRefColumn, int depRelationId, int refRelationId, LongIntMap lookup,
+                                      int layer) {
         // a candidate can only be valid, if all included partitions of size-1 have been validated.
         // we do not need to skip the last position, since that one is always possible
         for (int skipIndex = 0; skipIndex < layer; skipIndex++) {
-            StringBuilder depString = new StringBuilder();
-            StringBuilder refString = new StringBuilder();
-
-            depString.append(depRelationId).append(": [");
-            refString.append(refRelationId).append(": [");
-
-            int attPointer = 0;
-            for (int col = 0; col < layer; col++) {
-                if (col == skipIndex) {
-                    attPointer++;
-                }
-                depString.append(dependantColumns[attPointer]).append(", ");
-                refString.append(referencedColumns[attPointer]).append(", ");
+            int depId = attributeId(depRelationId, naryDepColumns, unaryDepColumn, skipIndex);
+            int refId = attributeId(refRelationId, naryRefColumns, unaryRefColumn, skipIndex);
 
-                attPointer++;
-            }
-            depString.delete(depString.length() - 2, depString.length()).append("]");
-            refString.delete(refString.length() - 2, refString.length()).append("]");
-
-            Set<String> refSet = lookup.get(depString.toString());
-            if (refSet == null || !refSet.contains(refString.toString())) {
+            if (depId < 0 || refId < 0 || !lookup.containsKey(LongIntMap.key(depId, refId))) {
                 /*
                 Avoid many calls to the logger
                  logger.debug("Skipped candidate. " + depRelationId + ": " + Arrays.toString(dependantColumns) + " -> " + refRelationId + ": " + Arrays.toString
@@ -230,6 +404,32 @@ public class Candidates {
         return true;
     }
 
+    /**
+     * Looks up the attribute of the current layer, which consists of the nary columns and the expansion without the column at skipIndex. An attribute is found by starting
+     * with the unary attribute of its first column and following the keys of every layer, see {@link #generateAttributes}.
+     *
+     * @return the id of the attribute or -1 if the current layer does not contain it.
+     */
+    private int attributeId(int relationId, int[] naryColumns, int expansionColumn, int skipIndex) {
+        int id = -1;
+        for (int position = 0; position <= naryColumns.length; position++) {
+            if (position == skipIndex) {
+                continue;
+            }
+            int column = position < naryColumns.length ? naryColumns[position] : expansionColumn;
+            if (id < 0) {
+                id = relationOffsets[relationId] + column;
+            } else {
+                // the attribute grows by one column per layer, the attributes of layer 2 are found with the keys at index 0
+                id = Arrays.binarySearch(attributeKeys.get(position - (skipIndex < position ? 2 : 1)), LongIntMap.key(id, column));
+                if (id < 0) {
+                    return -1;
+                }
+            }
+        }
+        return id;
+    }
+
     public void cleanCandidates() {
         for (Attribute attribute : current) {
             if (attribute.getReferenced() != null && attribute.getReferenced().isEmpty()) {
@@ -240,15 +440,26 @@ public class Candidates {
 
     /**
      * Stores the unary pINDs so that they can be used to expand the n-ary attributes in the higher layers.
-     * Unary pINDs are stored as follows:
-     * [RelationId] maps to -> [DependantColumn] maps to -> [RelationId of reference] contains list of column numbers.
+     * Unary pINDs are stored in compressed sparse rows: the ids of the attributes referenced by the unary attribute d are unaryReferenced[unaryStarts[d]] up to
+     * unaryReferenced[unaryStarts[d + 1]] (exclusive) in ascending order. Since the ids of a relation are consecutive, the referenced attributes of every relation form a range.
      *
      * @param attributes       The attribute index of all attributes with size 1.
      * @param relationMetadata Metadata that is used to access the relation offsets
      */
     private void storeUnary(Attribute[] attributes, RelationMetadata[] relationMetadata) {
-        unary = new HashMap<>();
+        attributeKeys.clear();
+        relationOffsets = new int[relationMetadata.length];
+        relationColumns = new int[relationMetadata.length];
+        for (RelationMetadata relation : relationMetadata) {
+            relationOffsets[relation.id] = relation.offset;
+            relationColumns[relation.id] = relation.columnNames.length;
+        }
+
+        unaryStarts = new int[current.length + 1];
+        int[] referenced = new int[current.length];
+        int size = 0;
         for (int dependentAttribute = 0; dependentAttribute < current.length; dependentAttribute++) {
+            unaryStarts[dependentAttribute] = size;
 
             if (current[dependentAttribute].getReferenced() == null) {
                 continue;
@@ -259,46 +470,48 @@ public class Candidates {
                 continue;
             }
 
-            int dependentRelationId = attributes[dependentAttribute].getRelationId();
-
-            HashMap<Integer, HashMap<Integer, List<Integer>>> relationMap = unary.computeIfAbsent(dependentRelationId, k -> new HashMap<>());
-
-            HashMap<Integer, List<Integer>> referredAttributes = new HashMap<>();
-
             PINDList.PINDIterator referencedIterator = current[dependentAttribute].getReferenced().elementIterator();
             while (referencedIterator.hasNext()) {
 
-                int referencedAttribute = referencedIterator.next().id;
+                int referencedAttribute = referencedIterator.next().getId();
 
                 if (attributes[referencedAttribute].getMetadata().totalValues == 0) {
                     // do not safe attributes which are completely empty. They do not carry meaning.
                     continue;
                 }
 
-                int referencedRelationId = attributes[referencedAttribute].getRelationId();
-                referredAttributes.computeIfAbsent(referencedRelationId, k -> new ArrayList<>());
-
-                referredAttributes.get(referencedRelationId).add(referencedAttribute - relationMetadata[referencedRelationId].offset);
+                if (size == referenced.length) {
+                    referenced = Arrays.copyOf(referenced, size * 2);
+                }
+                referenced[size++] = referencedAttribute;
             }
-            relationMap.put(dependentAttribute - relationMetadata[dependentRelationId].offset, referredAttributes);
+            Arrays.sort(referenced, unaryStarts[dependentAttribute], size);
         }
+        unaryStarts[current.length] = size;
+        unaryReferenced = Arrays.copyOf(referenced, size);
     }
 
-    private Attribute generateAttribute(Attribute naryAttribute, int unaryExpansionId, HashMap<Attribute, Integer> nextAttributes) {
-        Attribute attribute = new Attribute(-1,
-                naryAttribute.getRelationId(),
-                Arrays.copyOf(naryAttribute.getContainedColumns(), naryAttribute.getContainedColumns().length + 1));
-        attribute.getContainedColumns()[naryAttribute.getContainedColumns().length] = unaryExpansionId;
+    /**
+     * @return the first position in [from, to) of the sorted array, whose value is at least the given value, or to if there is none.
+     */
+    private static int lowerBound(int[] sorted, int from, int to, int value) {
+        int position = Arrays.binarySearch(sorted, from, to, value);
+        return position >= 0 ? position : -position - 1;
+    }
 
-        if (!nextAttributes.containsKey(attribute)) {
-            attribute.setId(nextAttributeId);
-            nextAttributes.put(attribute, nextAttributeId);
-            nextAttributeId++;
-        } else {
-            attribute.setId(nextAttributes.get(attribute));
+    private static boolean contains(int[] columns, int column) {
+        for (int contained : columns) {
+            if (contained == column) return true;
         }
+        return false;
+    }
 
-        return attribute;
+    private static int max(int[] columns) {
+        int max = -1;
+        for (int column : columns) {
+            max = Math.max(max, column);
+        }
+        return max;
     }
 
     /**
@@ -331,8 +544,11 @@ public class Candidates {
             PINDList refMap = current[dependantId].getReferenced();
             PINDList.PINDIterator referred = refMap.elementIterator();
             while (referred.hasNext()) {
-                if (referred.next().violate(depGlobalUnique) < 0) {
+                PINDList.PINDElement ref = referred.next();
+                int referencedId = ref.getId();
+                if (ref.violate(depGlobalUnique) < 0) {
                     referred.remove();
+                    removeReference(referencedId);
                     numPruned++;
                 }
             }
@@ -356,18 +572,21 @@ public class Candidates {
                 PINDList.PINDIterator referenced = current[dependantId].getReferenced().elementIterator();
                 while (referenced.hasNext()) {
                     PINDList.PINDElement ref = referenced.next();
-                    long refNull = attributes[ref.id].getMetadata().nullEntries;
+                    int referencedId = ref.getId();
+                    long refNull = attributes[referencedId].getMetadata().nullEntries;
 
                     if (config.nullHandling == Config.NullHandling.FOREIGN) {
                         if (refNull > 0) {
                             // foreign mode does not allow the referenced side to have any nulls
                             referenced.remove();
+                            removeReference(referencedId);
                             numPruned++;
                         }
                     } else if (config.nullHandling == Config.NullHandling.INEQUALITY) {
                         // Inequality mode: every null is different. Therefor all depNulls are violations
                         if (ref.violate(depNull) < 0) {
                             referenced.remove();
+                            removeReference(referencedId);
                             numPruned++;
                         }
                     }
@@ -377,7 +596,40 @@ public class Candidates {
         logger.info("Pruned " + numPruned + " candidates through null constraints.");
     }
 
+    /**
+     * Removes the candidates, whose dependant attribute provably holds more values outside the referenced attribute than violations are left, see {@link ValueSketch}. The
+     * sketches are not needed afterwards.
+     */
+    public void pruneSketches(Attribute[] attributes) {
+        int numPruned = 0;
+        for (int dependantId = 0; dependantId < current.length; dependantId++) {
+
+            ValueSketch depSketch = attributes[dependantId].getSketch();
+            if (current[dependantId].getReferenced() == null || depSketch == null) {
+                continue;
+            }
+
+            PINDList.PINDIterator referenced = current[dependantId].getReferenced().elementIterator();
+            while (referenced.hasNext()) {
+                PINDList.PINDElement ref = referenced.next();
+                int referencedId = ref.getId();
+                ValueSketch refSketch = attributes[referencedId].getSketch();
+                // the bound is not added to the violations, since the validation counts these values again
+                if (refSketch != null && depSketch.notContainedIn(refSketch) > ref.getViolationCap() - ref.getViolations()) {
+                    referenced.remove();
+                    removeReference(referencedId);
+                    numPruned++;
+                }
+            }
+        }
+        for (Attribute attribute : attributes) {
+            attribute.setSketch(null);
+        }
+        logger.info("Pruned " + numPruned + " candidates through value sketches.");
+    }
+
     public void calculateViolations(Attribute[] attributes) {
+        long candidates = 0L;
         for (int dependantId = 0; dependantId < current.length; dependantId++) {
 
             if (current[dependantId].getReferenced() == null) {
@@ -397,9 +649,11 @@ public class Candidates {
             PINDList.PINDIterator referenced = current[dependantId].getReferenced().elementIterator();
             while (referenced.hasNext()) {
                 PINDList.PINDElement ref = referenced.next();
-                ref.violationCap = maxViolations;
-                current[ref.id].numReferencedBy++;
+                ref.setViolationCap(maxViolations);
+                current[ref.getId()].numReferencedBy++;
+                candidates++;
             }
         }
+        openCandidates.set(candidates);
     }
 }
@@ -0,0 +1,20 @@
+package structures;
+
+import java.nio.file.Path;
+
+/**
+ * A chunk is a byte range of a relation file, which starts at the beginning of a record. The sort jobs of every layer parse their chunk directly from the relation file.
+ *
+ * @param headerLine  the header of the relation, which defines the expected number of values per line
+ * @param skipHeader  true if the chunk starts with the header line of the relation
+ * @param spillPrefix the prefix of all files, that are spilled or cached while sorting the chunk
+ */
+public record Chunk(Path relationPath, long start, long end, String[] headerLine, boolean skipHeader, Path spillPrefix) {
+
+    /**
+     * @return the path of the cached column, see {@link io.ColumnCache}.
+     */
+    public Path columnPath(int column) {
+        return Path.of(spillPrefix + "_col_" + column + ".bin");
+    }
+}
@@ -0,0 +1,162 @@
+package structures;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A tournament tree of losers, which merges k sorted runs. Every inner node stores the run that lost the match at this node, while the overall winner, i.e. the run with the
+ * smallest head, is kept at the root. Once the head of the winning run changes, only the matches on the path from its leaf to the root are replayed, which takes about log k
+ * comparisons. A binary heap needs about twice as many comparisons for the same poll and add.
+ * <p>
+ * The tree does not know the heads of the runs. It only caches the first eight bytes of every head as an unsigned big endian number (see {@link #prefix(byte[], int, int)}).
+ * Most comparisons are decided by these prefixes and only ties are handed to the {@link RunComparator}, which compares the full heads.
+ */
+public class LoserTree {
+    // exhausted runs are bigger than every other run, which is mostly decided by their prefix alone
+    private static final long EXHAUSTED = -1L;
+    private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private final int size;
+    private final int[] tree;
+    private final long[] prefixes;
+    private final boolean[] exhausted;
+    private final RunComparator comparator;
+
+    /**
+     * @param size       the number of runs
+     * @param comparator compares the full heads of two runs, that share the same prefix
+     */
+    public LoserTree(int size, RunComparator comparator) {
+        this.size = size;
+        this.tree = new int[Math.max(1, size)];
+        this.prefixes = new long[size];
+        this.exhausted = new boolean[size];
+        this.comparator = comparator;
+    }
+
+    /**
+     * Sets the head of a run before the tree is {@link #build() built}.
+     */
+    public void setHead(int run, long prefix) {
+        prefixes[run] = prefix;
+        exhausted[run] = false;
+    }
+
+    /**
+     * Marks a run as empty before the tree is {@link #build() built}.
+     */
+    public void setExhausted(int run) {
+        prefixes[run] = EXHAUSTED;
+        exhausted[run] = true;
+    }
+
+    /**
+     * Plays all matches once the heads of all runs have been set. The leaf of run r is the node r + size, the children of the inner node n are 2n and 2n + 1.
+     */
+    public void build() {
+        if (size == 0) {
+            return;
+        }
+        int[] winners = new int[2 * size];
+        for (int run = 0; run < size; run++) {
+            winners[run + size] = run;
+        }
+        for (int node = size - 1; node > 0; node--) {
+            int a = winners[2 * node];
+            int b = winners[2 * node + 1];
+            if (beats(b, a)) {
+                winners[node] = b;
+                tree[node] = a;
+            } else {
+                winners[node] = a;
+                tree[node] = b;
+            }
+        }
+        tree[0] = size == 1 ? 0 : winners[1];
+    }
+
+    /**
+     * @return the run with the smallest head or -1 if all runs are exhausted.
+     */
+    public int winner() {
+        int winner = tree[0];
+        return size == 0 || exhausted[winner] ? -1 : winner;
+    }
+
+    /**
+     * Replaces the head of the current winner and restores the tree.
+     */
+    public void advance(long prefix) {
+        int winner = tree[0];
+        prefixes[winner] = prefix;
+        replay(winner);
+    }
+
+    /**
+     * Removes the current winner, since its run ran out of values.
+     */
+    public void exhaust() {
+        int winner = tree[0];
+        prefixes[winner] = EXHAUSTED;
+        exhausted[winner] = true;
+        replay(winner);
+    }
+
+    private void replay(int run) {
+        int winner = run;
+        for (int node = (run + size) >>> 1; node > 0; node >>>= 1) {
+            int opponent = tree[node];
+            if (beats(opponent, winner)) {
+                tree[node] = winner;
+                winner = opponent;
+            }
+        }
+        tree[0] = winner;
+    }
+
+    /**
+     * @return true if the head of run a is smaller than the head of run b.
+     */
+    private boolean beats(int a, int b) {
+        long prefixA = prefixes[a];
+        long prefixB = prefixes[b];
+        if (prefixA != prefixB) return Long.compareUnsigned(prefixA, prefixB) < 0;
+        // exhausted runs share the biggest possible prefix
+        if (exhausted[a] || exhausted[b]) return exhausted[b] && !exhausted[a];
+        return comparator.compare(a, b) < 0;
+    }
+
+    /**
+     * Calculates the cached prefix of a value. Values, that are shorter than eight bytes, are padded with zeros. Thus, if the prefix of a value a is smaller than the prefix of
+     * b, a is also smaller than b by their unsigned bytes. Equal prefixes need to be resolved by comparing the whole values.
+     */
+    public static long prefix(byte[] value, int offset, int length) {
+        if (length >= Long.BYTES) return (long) LONG_VIEW.get(value, offset);
+        long prefix = 0L;
+        for (int i = 0; i < Long.BYTES; i++) {
+            prefix = (prefix << 8) | (i < length ? value[offset + i] & 0xFF : 0);
+        }
+        return prefix;
+    }
+
+    /**
+     * Calculates the cached prefix of a value inside a buffer, which has to be in big endian order.
+     */
+    public static long prefix(ByteBuffer value, int offset, int length) {
+        if (length >= Long.BYTES) return value.getLong(offset);
+        long prefix = 0L;
+        for (int i = 0; i < Long.BYTES; i++) {
+            prefix = (prefix << 8) | (i < length ? value.get(offset + i) & 0xFF : 0);
+        }
+        return prefix;
+    }
+
+    @FunctionalInterface
+    public interface RunComparator {
+        /**
+         * Compares the heads of two runs by their unsigned bytes.
+         */
+        int compare(int runA, int runB);
+    }
+}
@@ -0,0 +1,88 @@
+package structures;
+
+import runner.Config;
+
+/**
+ * The memory budget is shared by all sorters, which run at the same time. Instead of spilling after a fixed number of values, a sorter reserves memory from the budget as its
+ * value map grows and spills, once the budget can not grant more. This way a sorter with many small values keeps going, while a sorter with wide values spills early.
+ * <p>
+ * Every sorter is guaranteed a fair share of the budget, so that a sorter, which started late, does not have to spill tiny files because another sorter holds most of the
+ * budget. If such a reservation exceeds the budget, the budget is under pressure and every sorter holding more than its fair share spills at its next reservation.
+ */
+public class MemoryBudget {
+    private final long capacity;
+    private final long fairShare;
+    private final long granule;
+    private long used;
+    private boolean pressure;
+
+    public MemoryBudget(long capacity, int parallelism) {
+        this.capacity = capacity;
+        this.fairShare = capacity / Math.max(1, parallelism);
+        // reserving in steps keeps the synchronization off the hot path of the sorters
+        this.granule = Math.max(1L << 16, fairShare / 64);
+    }
+
+    /**
+     * Creates the budget of an execution. The sorters share config.sortMemory bytes or, if not set, config.sortMemoryFraction of the maximal heap size.
+     */
+    public static MemoryBudget of(Config config) {
+        long capacity = config.sortMemory > 0 ? config.sortMemory : (long) (Runtime.getRuntime().maxMemory() * config.sortMemoryFraction);
+        return new MemoryBudget(capacity, config.PARALLEL);
+    }
+
+    public long capacity() {
+        return capacity;
+    }
+
+    /**
+     * The smallest amount of memory that is reserved at once.
+     */
+    public long granule() {
+        return granule;
+    }
+
+    /**
+     * Tries to reserve more memory for a sorter.
+     *
+     * @param held  the bytes the sorter already holds
+     * @param bytes the additional bytes
+     * @return false if the sorter should spill instead.
+     */
+    public synchronized boolean reserve(long held, long bytes) {
+        if (pressure && held > fairShare) {
+            return false;
+        }
+        if (used + bytes <= capacity) {
+            used += bytes;
+            return true;
+        }
+        if (held + bytes <= fairShare) {
+            used += bytes;
+            pressure = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reserves memory, which can not be spilled, like the column cache of a chunk, which is kept until the chunk has been read. Unlike {@link #reserve(long, long)}, the
+     * memory is always granted. If it exceeds the budget, the budget is under pressure, which makes the sorters spill their maps instead.
+     */
+    public synchronized void acquire(long bytes) {
+        used += bytes;
+        if (used > capacity) {
+            pressure = true;
+        }
+    }
+
+    /**
+     * Returns the memory of a sorter, which has spilled or finished.
+     */
+    public synchronized void release(long bytes) {
+        used -= bytes;
+        if (used <= capacity) {
+            pressure = false;
+        }
+    }
+}
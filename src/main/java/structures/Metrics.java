@@ -9,14 +9,24 @@ public class Metrics {
     public int mergeFiles;
     public int nary;
     public int unary;
+    // the bytes written to compressed temp files, before and after the compression
+    public long tempBytes;
+    public long storedTempBytes;
     public List<Integer> layerAttributes;
     public List<Integer> layerCandidates;
     public List<Integer> layerPINDs;
+    // the values, which the value filter has masked while sorting, and the estimated false positive rate of the filter. Both are 0 if no filter has been used in the layer.
+    public List<Long> layerMaskedValues;
+    public List<Double> layerFilterFpr;
+    // the planned sizes, null if the sizes have been given by the config
+    public TuningPlan tuning;
 
 
     public Metrics() {
         layerAttributes = new ArrayList<>();
         layerCandidates = new ArrayList<>();
         layerPINDs = new ArrayList<>();
+        layerMaskedValues = new ArrayList<>();
+        layerFilterFpr = new ArrayList<>();
     }
 }
\ No newline at end of file
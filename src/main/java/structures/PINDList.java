@@ -1,30 +1,41 @@
 package structures;
 
-import lombok.Getter;
-import lombok.Setter;
-
+import java.util.Arrays;
 import java.util.Collection;
 
 /**
- * A PINDList is a single-linked list which stores pIND. The list is associated with some dependant attribute and stores the (open) referenced attributes with the respective
- * remaining violations.
+ * A PINDList stores the pINDs of some dependant attribute, that is the (open) referenced attributes with the respective violations.
+ * <p>
+ * The list is kept as parallel primitive arrays instead of one object per pIND, since the first layer holds a candidate for every pair of attributes. Removed entries are
+ * marked and compacted away in bulk, once an iteration over the list reaches its end.
  */
 public class PINDList {
+    private static final int REMOVED = -1;
 
-    private PINDElement first = null;
-    private PINDElement last = null;
-    private int size = 0;
+    private int[] ids;
+    private long[] violationCaps;
+    private long[] violations;
+    // the number of used slots, including removed ones
+    private int length = 0;
+    private int removed = 0;
 
     public PINDList(Collection<Integer> seed, int except) {
+        this(seed.size());
         initialize(seed, except);
     }
 
     public PINDList() {
+        this(4);
+    }
 
+    private PINDList(int capacity) {
+        this.ids = new int[capacity];
+        this.violationCaps = new long[capacity];
+        this.violations = new long[capacity];
     }
 
     public int size() {
-        return size;
+        return length - removed;
     }
 
     private void initialize(Collection<Integer> seed, int except) {
@@ -36,14 +47,16 @@ public class PINDList {
     }
 
     public void add(int value, long violationsLeft) {
-        PINDElement element = new PINDElement(value, violationsLeft);
-        if (this.last == null) {
-            this.first = element;
-        } else {
-            this.last.next = element;
+        if (length == ids.length) {
+            int capacity = Math.max(4, 2 * length);
+            ids = Arrays.copyOf(ids, capacity);
+            violationCaps = Arrays.copyOf(violationCaps, capacity);
+            violations = Arrays.copyOf(violations, capacity);
         }
-        this.last = element;
-        size++;
+        ids[length] = value;
+        violationCaps[length] = violationsLeft;
+        violations[length] = 0L;
+        length++;
     }
 
     /**
@@ -52,7 +65,7 @@ public class PINDList {
      * @return True if there is no item in the list, False otherwise
      */
     public boolean isEmpty() {
-        return this.first == null;
+        return size() == 0;
     }
 
     /**
@@ -64,18 +77,68 @@ public class PINDList {
         return new PINDIterator();
     }
 
-    public static class PINDElement {
+    /**
+     * @return the referenced id at the given position of a compacted list.
+     */
+    int idAt(int position) {
+        return ids[position];
+    }
 
-        public int id;
-        public long violationCap;
-        @Getter
-        private long violations;
-        private PINDElement next = null;
+    /**
+     * Adds violations to the entry at the given position, see {@link PINDElement#violate(long)}.
+     */
+    long violateAt(int position, long occurrences) {
+        violations[position] += occurrences;
+        return violationCaps[position] - violations[position];
+    }
 
-        public PINDElement(int value, long maxViolations) {
-            this.id = value;
-            this.violationCap = maxViolations;
-            violations = 0L;
+    void removeAt(int position) {
+        ids[position] = REMOVED;
+        removed++;
+    }
+
+    /**
+     * Moves the remaining entries to the front of the arrays, keeping their order.
+     */
+    void compact() {
+        if (removed == 0) return;
+        int target = 0;
+        for (int source = 0; source < length; source++) {
+            if (ids[source] == REMOVED) continue;
+            ids[target] = ids[source];
+            violationCaps[target] = violationCaps[source];
+            violations[target] = violations[source];
+            target++;
+        }
+        length = target;
+        removed = 0;
+        if (length < ids.length / 4) {
+            ids = Arrays.copyOf(ids, length);
+            violationCaps = Arrays.copyOf(violationCaps, length);
+            violations = Arrays.copyOf(violations, length);
+        }
+    }
+
+    /**
+     * A view on the entry, the iterator currently points to. The iterator returns the same element for every entry, so it must not be kept after the next call of next().
+     */
+    public class PINDElement {
+        private int index;
+
+        public int getId() {
+            return ids[index];
+        }
+
+        public long getViolationCap() {
+            return violationCaps[index];
+        }
+
+        public void setViolationCap(long violationCap) {
+            violationCaps[index] = violationCap;
+        }
+
+        public long getViolations() {
+            return violations[index];
         }
 
         /**
@@ -85,57 +148,43 @@ public class PINDList {
          * @return the remaining violations
          */
         public long violate(long occurrences) {
-            violations += occurrences;
-            return violationCap - violations;
+            return violateAt(index, occurrences);
         }
     }
 
     public class PINDIterator {
-
-        private PINDElement previous = null;
-        private PINDElement current = null;
-        private PINDElement next;
+        private final PINDElement current = new PINDElement();
+        private int next = 0;
 
         public PINDIterator() {
-            this.next = first;
+            current.index = -1;
         }
 
         public boolean hasNext() {
-            return this.next != null;
+            while (next < length && ids[next] == REMOVED) {
+                next++;
+            }
+            if (next < length) {
+                return true;
+            }
+            // the iteration is done, which is when the removed entries are dropped
+            if (removed > 0) {
+                compact();
+                next = length;
+                current.index = -1;
+            }
+            return false;
         }
 
         public PINDElement next() {
-            this.previous = this.current;
-            this.current = this.next;
-            if (this.current != null) {
-                this.next = this.current.next;
-            }
-            assert this.current != null;
-            return this.current;
+            boolean hasNext = hasNext();
+            assert hasNext;
+            current.index = next++;
+            return current;
         }
 
         public void remove() {
-            // if there is no previous element, we simply need to point the first pointer of the List to the next entry.
-            if (this.previous == null) {
-                // point first to next element
-                first = this.next;
-                // set current to null, since it is 'deleted'
-                current = null;
-            }
-            // the last element should be removed
-            else if (this.next == null) {
-                last = this.previous;
-                last.next = null;
-            }
-            // if we are at the first or later entry we need to put the next pointer of the previous element to the next element.
-            // This means we exclude the current element.
-            else {
-                // set the previous point to the next element
-                this.previous.next = this.next;
-                // set the current element to the previous, such that the previous will still be the previous after the next call of next()
-                this.current = this.previous;
-            }
-            size--;
+            removeAt(current.index);
         }
     }
-}
\ No newline at end of file
+}
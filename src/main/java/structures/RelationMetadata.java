@@ -1,89 +1,154 @@
 package structures;
 
-import com.opencsv.CSVWriterBuilder;
-import com.opencsv.ICSVWriter;
 import com.opencsv.exceptions.CsvValidationException;
+import io.RecordBoundaryScanner;
 import io.RelationalInput;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import runner.Config;
 
-import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.Callable;
 
 /**
- * Relational Metadata includes the relations name, the column names and the paths to the relation chunks. All of these
+ * Relational Metadata includes the relations name, the column names and the relation chunks. All of these
  * attributes a loaded/constructed once, before the actual algorithm starts. The Metadata is kept in main memory the
  * whole time and is required to load each layer and for the creation of a human-readable output.
+ * <p>
+ * Chunks are byte ranges of the relation file, which are not copied. To find the record boundaries at which the relation is cut into chunks, the file is split into segments
+ * at line breaks, which are scanned in parallel.
  */
-public class RelationMetadata implements Callable<Void>, Comparable<RelationMetadata> {
+public class RelationMetadata {
+    // relations, which are smaller than this, are scanned by a single thread
+    private static final long MIN_SEGMENT_SIZE = 1L << 24;
 
-    public final List<Path> chunks;
+    public final List<Chunk> chunks;
     public final int id;
     public final int offset;
-    public final RelationalInput relationalInput;
+    private final Path relationPath;
     private final Config config;
-    private final Logger logger = LoggerFactory.getLogger(RelationMetadata.class);
     private final long size;
+    private final List<RecordBoundaryScanner> segments;
+    // the columns which are still kept in the column cache of the chunks
+    private final boolean[] cachedColumns;
     public String[] columnNames;
     public List<Attribute> connectedAttributes;
 
     public RelationMetadata(int relationId, int relationOffset, Path relationPath, Config config) throws IOException, CsvValidationException {
         this.chunks = new ArrayList<>();
+        this.segments = new ArrayList<>();
         this.config = config;
         this.id = relationId;
+        this.relationPath = relationPath;
         this.size = Files.size(relationPath);
         this.offset = relationOffset;
-        this.relationalInput = new RelationalInput(relationPath, config);
+        RelationalInput relationalInput = new RelationalInput(relationPath, config);
         this.columnNames = relationalInput.headerLine;
+        relationalInput.close();
+        this.cachedColumns = new boolean[columnNames.length];
+        Arrays.fill(cachedColumns, true);
+    }
+
+    public Path relationPath() {
+        return relationPath;
     }
 
     /**
-     * Splits the input horizontally into chunks. Splitting and merging the chunks enables more multi-threading
-     * opportunities.
+     * @return the size of the relation file in bytes.
      */
-    @Override
-    public Void call() throws Exception {
-        long sTime = System.currentTimeMillis();
-        int maxSize = Math.max(10, config.CHUNK_SIZE / relationalInput.headerLine.length);
-        int chunkNum = 0;
-        Path chunkPath = Path.of(config.tempFolder + File.separator + "r_" + id + "_c_" + chunkNum + ".txt");
-        BufferedWriter chunkWriter = Files.newBufferedWriter(chunkPath, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE);
-        ICSVWriter csvWriter = new CSVWriterBuilder(chunkWriter).withSeparator(config.separator).withQuoteChar(config.quoteChar).withEscapeChar(config.fileEscape).build();
-        chunks.add(chunkPath);
-        int chunkSize = 0;
+    public long size() {
+        return size;
+    }
 
-        while (relationalInput.hasNext()) {
-            csvWriter.writeNext(relationalInput.next());
-            if (++chunkSize >= maxSize) {
-                chunkWriter.close();
+    /**
+     * Cuts the relation file into segments, that start right after a line break, and creates a scanner for every segment. Relation files, that can not be scanned byte wise,
+     * become a single chunk.
+     */
+    public List<RecordBoundaryScanner> createBoundaryScans() throws IOException {
+        if (!RecordBoundaryScanner.supports(config)) {
+            return segments;
+        }
+        int numSegments = (int) Math.max(1, Math.min(config.PARALLEL, size / MIN_SEGMENT_SIZE));
 
-                // open next chunk writer if there are still lines left
-                if (relationalInput.hasNext()) {
-                    chunkNum++;
-                    chunkSize = 0;
-                    chunkPath = Path.of(config.tempFolder + File.separator + "r_" + id + "_c_" + chunkNum + ".txt");
-                    chunkWriter = Files.newBufferedWriter(chunkPath, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE);
-                    csvWriter = new CSVWriterBuilder(chunkWriter).withSeparator(config.separator).withQuoteChar(config.quoteChar).withEscapeChar(config.fileEscape).build();
-                    chunks.add(chunkPath);
+        List<Long> starts = new ArrayList<>();
+        starts.add(0L);
+        try (InputStream input = new BufferedInputStream(Files.newInputStream(relationPath))) {
+            long position = 0L;
+            for (int segment = 1; segment < numSegments; segment++) {
+                long target = segment * (size / numSegments);
+                while (position < target) {
+                    long skipped = input.skip(target - position);
+                    if (skipped <= 0) break;
+                    position += skipped;
                 }
+                // move behind the next line break
+                int b;
+                do {
+                    b = input.read();
+                    position++;
+                } while (b != -1 && b != '\n');
+                if (b == -1) break;
+                if (position < size) starts.add(position);
             }
         }
-        chunkWriter.close();
-        logger.debug("Finished relation" + this.id + " (" + (System.currentTimeMillis() - sTime) + "ms)");
-        return null;
+        int recordsPerChunk = Math.max(10, config.CHUNK_SIZE / columnNames.length);
+        for (int i = 0; i < starts.size(); i++) {
+            long end = i + 1 < starts.size() ? starts.get(i + 1) : size;
+            segments.add(new RecordBoundaryScanner(relationPath, starts.get(i), end, recordsPerChunk, config));
+        }
+        return segments;
     }
 
-    @Override
-    public int compareTo(RelationMetadata o) {
-        // reverse comparison for descending sort
-        return this.size > o.size ? -1 : 1;
+    /**
+     * Resolves the record boundaries of the scanned segments and cuts the relation into chunks.
+     */
+    public void createChunks() {
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        // the file starts outside any record
+        int state = RecordBoundaryScanner.OUTSIDE;
+        for (int i = 0; i < segments.size(); i++) {
+            RecordBoundaryScanner segment = segments.get(i);
+            long boundary = segment.firstBoundary(state);
+            if (i > 0 && boundary >= 0) boundaries.add(boundary);
+            boundaries.addAll(segment.chunkBoundaries(state));
+            state = segment.endState(state);
+        }
+        boundaries.add(size);
+
+        for (int i = 0; i + 1 < boundaries.size(); i++) {
+            long start = boundaries.get(i);
+            long end = boundaries.get(i + 1);
+            if (start >= end && !chunks.isEmpty()) continue;
+            Path spillPrefix = Path.of(config.tempFolder + File.separator + "r_" + id + "_c_" + chunks.size());
+            chunks.add(new Chunk(relationPath, start, end, columnNames, start == 0 && config.inputFileHasHeader, spillPrefix));
+        }
+        segments.clear();
+    }
+
+    /**
+     * Deletes the cached columns, which are not part of any connected attribute. The attributes of later layers only combine columns of the current attributes, which is why
+     * these columns are never read again.
+     */
+    public void dropUnusedColumns() throws IOException {
+        boolean[] used = new boolean[columnNames.length];
+        for (Attribute attribute : connectedAttributes) {
+            for (int column : attribute.getContainedColumns()) {
+                used[column] = true;
+            }
+        }
+        for (int column = 0; column < columnNames.length; column++) {
+            if (cachedColumns[column] && !used[column]) {
+                for (Chunk chunk : chunks) {
+                    Files.deleteIfExists(chunk.columnPath(column));
+                }
+                cachedColumns[column] = false;
+            }
+        }
     }
 }
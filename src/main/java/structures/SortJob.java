@@ -1,37 +1,49 @@
 package structures;
 
-import com.google.common.hash.BloomFilter;
 import io.Sorter;
+import io.ValueDictionary;
 import org.slf4j.LoggerFactory;
 import runner.Config;
 
-import java.nio.file.Path;
 import java.util.List;
 import java.util.concurrent.Callable;
 
 public final class SortJob implements Callable<SortResult>, Comparable<SortJob> {
-    private final Path chunkPath;
+    /**
+     * The heap a single (value, attribute) entry occupied in the nested HashMap<String, HashMap<Integer, Long>>, which the sorter used before. The sort size is still given
+     * in entries of that map and is converted into bytes using this factor. Since the current value map needs far fewer bytes per entry, a sorter can hold several times more
+     * values within the same amount of memory.
+     */
+    public static final long BYTES_PER_ENTRY = 200L;
+    private final Chunk chunk;
     private final List<Attribute> connectedAttributes;
     private final int relationId;
     private final int sort;
-    private final int chunk;
+    private final int chunkSize;
     private final Config config;
-    private final BloomFilter<Integer> filter;
+    private final ValueFilter filter;
     private final int layer;
+    private final ValueDictionary dictionary;
+    private final MemoryBudget budget;
 
-    public SortJob(Path chunkPath, List<Attribute> connectedAttributes, int relationId, int sortSize, int chunkSize, Config config, BloomFilter<Integer> filter, int layer)  {
-        this.chunkPath = chunkPath;
+    /**
+     * @param budget the memory budget shared by all sort jobs, or null if the sorter spills after sortSize entries.
+     */
+    public SortJob(Chunk chunk, List<Attribute> connectedAttributes, int relationId, int sortSize, int chunkSize, Config config, ValueFilter filter, int layer, ValueDictionary dictionary, MemoryBudget budget)  {
+        this.chunk = chunk;
         this.connectedAttributes = connectedAttributes;
         this.relationId = relationId;
         this.sort = sortSize;
-        this.chunk = chunkSize;
+        this.chunkSize = chunkSize;
         this.config = config;
         this.filter = filter;
         this.layer = layer;
+        this.dictionary = dictionary;
+        this.budget = budget;
     }
 
-    public Path chunkPath() {
-        return chunkPath;
+    public Chunk chunk() {
+        return chunk;
     }
 
     public List<Attribute> connectedAttributes() {
@@ -42,20 +54,27 @@ public final class SortJob implements Callable<SortResult>, Comparable<SortJob>
         return relationId;
     }
 
+    /**
+     * @return the dictionary, which assigns the global ids to the cached columns, or null if the columns do not need to be assigned ids in this layer.
+     */
+    public ValueDictionary dictionary() {
+        return dictionary;
+    }
+
 
 
     @Override
     public String toString() {
         return "SortJob[" +
-                "chunkPath=" + chunkPath + ", " +
+                "chunk=" + chunk + ", " +
                 "connectedAttributes=" + connectedAttributes + ", " +
                 "relationId=" + relationId + ']';
     }
 
     @Override
     public SortResult call() throws Exception {
-        LoggerFactory.getLogger(SortJob.class).debug("Starting to sort: " + chunkPath + " with " + connectedAttributes.size() + " attributes");
-        Sorter sorter = new Sorter(sort, (long) (connectedAttributes.size()) * 10 * chunk / sort);
+        LoggerFactory.getLogger(SortJob.class).debug("Starting to sort: " + chunk.spillPrefix() + " with " + connectedAttributes.size() + " attributes");
+        Sorter sorter = new Sorter(sort * BYTES_PER_ENTRY, (long) (connectedAttributes.size()) * 10 * chunkSize / sort, budget);
         return sorter.process(this, config, filter, layer);
     }
 
@@ -0,0 +1,25 @@
+package structures;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The size parameters, which have been chosen for an execution, together with the profile of the input they are based on. Every decision keeps a short reason, which is
+ * written into the metadata of the execution.
+ */
+public class TuningPlan {
+    public long sampledRecords;
+    public long estimatedRecords;
+    public long estimatedValues;
+    public long estimatedDistinctValues;
+    public double averageValueLength;
+    public long maxMemory;
+    public int parallelism;
+    public final Map<String, Long> values = new LinkedHashMap<>();
+    public final Map<String, String> reasons = new LinkedHashMap<>();
+
+    public void decide(String parameter, long value, String reason) {
+        values.put(parameter, value);
+        reasons.put(parameter, reason);
+    }
+}
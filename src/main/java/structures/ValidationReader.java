@@ -1,76 +1,248 @@
 package structures;
 
-import java.io.BufferedReader;
+import io.BlockSummary;
+import io.RecordCodec;
+
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayDeque;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
 
 /**
  * A ValidationReader is attached to a single fully sorted relation during validation. The internal queue buffers the head values reducing the sorting efforts.
+ * <p>
+ * The queued records are never materialized as objects. Instead, every record is a slice of {@link #buffer()}, described by the offset and length of its value and of its
+ * serialized attributes. If the relation file is memory-mapped, the buffer is the mapped file itself and no record is copied at all. Otherwise, the records are streamed into a
+ * reusable byte arena.
  */
 public class ValidationReader {
-    private final BufferedReader reader;
+    private final RecordCodec.Reader reader;
+    private final RecordCodec.MappedReader mappedReader;
     private final int size;
-    private String nextLine;
-    private String nextOccurrence;
-    public ArrayDeque<Entry> queue;
+    private boolean hasNext;
+    private ByteBuffer buffer;
+    private byte[] arena;
+    private int arenaLength;
+    private int[] valueOffsets;
+    private int[] valueLengths;
+    private int[] attributesOffsets;
+    private int[] attributesLengths;
+    private int head;
+    private int tail;
     public boolean finished;
+    // the relation whose attributes the file holds
+    public final int relationId;
+    // the attributes of the blocks of the file, null if the file has no summary
+    private final BlockSummary summary;
+    // the blocks, which contain none of these attributes, are skipped. Null as long as no block may be skipped.
+    private IntPredicate relevant;
 
     /**
      * @param relationPath the path of the sorted relation file.
+     * @param relationId   the id of the relation.
      * @param queueSize    the number of (sorted) values to buffer
+     * @param codec        the codec the relation file has been written with
+     * @param mapped       if true, the relation file is memory-mapped. Requires a codec which {@link RecordCodec#supportsMapping() supports mapping}.
      * @throws FileNotFoundException if the relation file could not be accessed.
      */
-    public ValidationReader(String relationPath, int queueSize) throws IOException {
-        this.reader = new BufferedReader(new FileReader(relationPath));
-        this.queue = new ArrayDeque<>(queueSize); // we know exactly how much the queue can grow
+    public ValidationReader(String relationPath, int relationId, int queueSize, RecordCodec codec, boolean mapped) throws IOException {
+        this.relationId = relationId;
+        this.summary = BlockSummary.read(Path.of(relationPath));
         this.size = queueSize;
+        // we know exactly how much the queue can grow
+        this.valueOffsets = new int[queueSize];
+        this.valueLengths = new int[queueSize];
+        this.attributesOffsets = new int[queueSize];
+        this.attributesLengths = new int[queueSize];
 
-        // we guarantee that there are always at least two lanes per file.
-        this.nextLine = reader.readLine();
-        this.nextOccurrence = reader.readLine();
+        if (mapped) {
+            this.reader = null;
+            this.mappedReader = codec.mappedReader(Path.of(relationPath));
+            this.buffer = mappedReader.buffer();
+        } else {
+            this.reader = codec.reader(Path.of(relationPath));
+            this.mappedReader = null;
+            this.arena = new byte[1024];
+            this.buffer = ByteBuffer.wrap(arena);
+            // we guarantee that there is always at least one record per file.
+            this.hasNext = reader.next();
+        }
 
         finished = false;
     }
 
     /**
-     * The central method of the ValidationReader. It will refill the internal queue and return the biggest value stored within the queue.
-     *
-     * @return The biggest value of the queue.
+     * From now on, the blocks of the file, which do not contain any relevant attribute, are skipped without reading them. An attribute, which is not relevant, must never
+     * become relevant again.
      */
-    public String update() {
+    public void skipIrrelevantBlocks(IntPredicate relevant) {
+        if (summary != null) {
+            this.relevant = relevant;
+        }
+    }
 
-        if (finished || queue.size() == size) {
-            return queue.getLast().getValue();
+    /**
+     * The central method of the ValidationReader. It will refill the internal queue. Afterwards, the queue holds at least one record or the reader is finished.
+     */
+    public void update() {
+        compact();
+        if (finished || tail == size) {
+            return;
         }
 
         try {
-            // load the next values until the queue has been refilled or the input ran out.
-            while (queue.size() < size && nextLine != null) {
-                // do not deserialize the connected attributes yet.
-                queue.add(new Entry(nextLine, nextOccurrence));
-
-                // update look ahead
-                nextLine = reader.readLine();
-                if (nextLine != null) nextOccurrence = reader.readLine();
+            if (mappedReader != null) {
+                fillMapped();
+            } else {
+                fillStreamed();
             }
         } catch (IOException e) {
             e.printStackTrace();
+            finished = true;
+        }
+    }
+
+    private void fillMapped() throws IOException {
+        while (tail < size) {
+            if (relevant != null) {
+                long skip = summary.skippable(mappedReader.position(), relevant);
+                if (skip > 0) mappedReader.skip(skip);
+            }
+            if (!mappedReader.next()) {
+                if (!mappedReader.hasRemaining()) {
+                    // if the relation file ran out of values, we mark the relation as finished.
+                    finished = true;
+                    return;
+                }
+                if (tail > 0) {
+                    // the queued records are slices of the current window, which therefore can only be moved once they have been consumed.
+                    return;
+                }
+                mappedReader.remap();
+                buffer = mappedReader.buffer();
+                continue;
+            }
+            enqueue(mappedReader.valueOffset(), mappedReader.valueLength(), mappedReader.attributesOffset(), mappedReader.attributesLength());
+        }
+    }
+
+    private void fillStreamed() throws IOException {
+        // load the next values until the queue has been refilled or the input ran out.
+        while (tail < size && hasNext) {
+            int recordLength = reader.recordLength();
+            if (arenaLength + recordLength > arena.length) {
+                arena = Arrays.copyOf(arena, Math.max(2 * arena.length, arenaLength + recordLength));
+                buffer = ByteBuffer.wrap(arena);
+            }
+            System.arraycopy(reader.buffer(), 0, arena, arenaLength, recordLength);
+            enqueue(arenaLength, reader.valueLength(), arenaLength + reader.valueLength(), recordLength - reader.valueLength());
+            arenaLength += recordLength;
+
+            // update look ahead
+            if (relevant != null) {
+                long skip = summary.skippable(reader.position(), relevant);
+                if (skip > 0) reader.skip(skip);
+            }
+            hasNext = reader.next();
         }
 
         // if the relation file ran out of values, we mark the relation as finished.
-        if (nextLine == null) {
+        if (!hasNext) {
             finished = true;
         }
+    }
+
+    private void enqueue(int valueOffset, int valueLength, int attributesOffset, int attributesLength) {
+        valueOffsets[tail] = valueOffset;
+        valueLengths[tail] = valueLength;
+        attributesOffsets[tail] = attributesOffset;
+        attributesLengths[tail] = attributesLength;
+        tail++;
+    }
+
+    /**
+     * Moves the records, which have not been consumed yet, to the front of the queue. For streamed relations the arena is compacted as well.
+     */
+    private void compact() {
+        if (head == 0) return;
+        int remaining = tail - head;
+        if (arena != null) {
+            int shift = remaining > 0 ? valueOffsets[head] : arenaLength;
+            System.arraycopy(arena, shift, arena, 0, arenaLength - shift);
+            arenaLength -= shift;
+            for (int i = head; i < tail; i++) {
+                valueOffsets[i] -= shift;
+                attributesOffsets[i] -= shift;
+            }
+        }
+        System.arraycopy(valueOffsets, head, valueOffsets, 0, remaining);
+        System.arraycopy(valueLengths, head, valueLengths, 0, remaining);
+        System.arraycopy(attributesOffsets, head, attributesOffsets, 0, remaining);
+        System.arraycopy(attributesLengths, head, attributesLengths, 0, remaining);
+        head = 0;
+        tail = remaining;
+    }
 
-        // O(1) since we use a ArrayDequeue
-        return queue.getLast().getValue();
+    /**
+     * @return the number of queued records.
+     */
+    public int queued() {
+        return tail - head;
+    }
+
+    public boolean isEmpty() {
+        return head == tail;
+    }
+
+    /**
+     * Removes the first records of the queue. Their slices stay valid until the next {@link #update()}.
+     */
+    public void consume(int records) {
+        head += records;
+    }
+
+    /**
+     * @return the buffer all queued records are slices of.
+     */
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * @param index the position of the record in the queue, 0 being the smallest queued record.
+     */
+    public int valueOffset(int index) {
+        return valueOffsets[head + index];
+    }
+
+    public int valueLength(int index) {
+        return valueLengths[head + index];
+    }
+
+    public int attributesOffset(int index) {
+        return attributesOffsets[head + index];
+    }
+
+    public int attributesLength(int index) {
+        return attributesLengths[head + index];
+    }
+
+    /**
+     * Compares the value of a queued record to the value of a record queued by another reader.
+     */
+    public int compare(int index, ValidationReader other, int otherIndex) {
+        return RecordCodec.compare(buffer, valueOffset(index), valueLength(index), other.buffer, other.valueOffset(otherIndex), other.valueLength(otherIndex));
     }
 
     public void close() {
         try {
-            reader.close();
+            if (mappedReader != null) {
+                mappedReader.close();
+            } else {
+                reader.close();
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -2,4 +2,4 @@ package structures;
 
 import java.util.HashMap;
 
-public record ValidationTuple(HashMap<Integer, Long> attributeGroup, int[] hashes) {}
+public record ValidationTuple(HashMap<Integer, Long> attributeGroup, long[] hashes) {}
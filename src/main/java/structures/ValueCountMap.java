@@ -0,0 +1,362 @@
+package structures;
+
+import io.RecordCodec;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A ValueCountMap stores for every value, which attributes (combinations) contain the value and how often. It replaces a nested HashMap<String, HashMap<Integer, Long>> and
+ * does not allocate any objects per value or per occurrence.
+ * <p>
+ * The values are stored as UTF-8 bytes in a single byte arena and are indexed by an open addressing table with linear probing. All other information of a value is kept
+ * in parallel primitive arrays. Since most values only occur in a single attribute, the first attribute and its occurrences are stored inline. Further attributes are kept in
+ * a small sorted array of (id, occurrences) pairs, which turns into a hash table once it grows beyond {@link #MAX_SORTED_ATTRIBUTES} entries.
+ * <p>
+ * The map keeps track of the bytes it currently uses, so that a caller can spill it based on the actual memory consumption.
+ */
+public class ValueCountMap {
+    private static final int MAX_SORTED_ATTRIBUTES = 16;
+    private static final long EMPTY = -1L;
+    // the bytes every value needs in the parallel arrays and the lookup table (at most half full).
+    private static final int BYTES_PER_VALUE = 4 + 4 + 4 + 4 + 8 + 4 + 8 + 2 * 4;
+
+    private int[] table;
+    private int[] hashes;
+    private int[] keyOffsets;
+    private int[] keyLengths;
+    private int[] firstIds;
+    private long[] firstOccurrences;
+    private int[] additionalSizes;
+    private long[][] additional;
+    private byte[] keys;
+    private int keysLength;
+    private int size;
+    private long additionalBytes;
+    private byte[] scratch = new byte[64];
+
+    public ValueCountMap() {
+        table = new int[1 << 10];
+        allocateValues(1 << 9);
+        keys = new byte[1 << 14];
+    }
+
+    private void allocateValues(int capacity) {
+        hashes = new int[capacity];
+        keyOffsets = new int[capacity];
+        keyLengths = new int[capacity];
+        firstIds = new int[capacity];
+        firstOccurrences = new long[capacity];
+        additionalSizes = new int[capacity];
+        additional = new long[capacity][];
+    }
+
+    /**
+     * @return the number of distinct values.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return an estimate of the bytes which are used by the stored values and their attributes.
+     */
+    public long memoryUsage() {
+        return (long) size * BYTES_PER_VALUE + keysLength + additionalBytes;
+    }
+
+    /**
+     * Adds a single occurrence of the value in the given attribute.
+     *
+     * @return true if the attribute has not been connected to the value before.
+     */
+    public boolean add(String value, int attributeId) {
+        int length = encode(value);
+        return add(scratch, 0, length, attributeId, 1L);
+    }
+
+    /**
+     * Adds occurrences of the value, which is given as a slice of UTF-8 bytes, in the given attribute.
+     *
+     * @return true if the attribute has not been connected to the value before.
+     */
+    public boolean add(byte[] value, int offset, int length, int attributeId, long occurrences) {
+        int hash = hash(value, offset, length);
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        int index;
+        while ((index = table[slot] - 1) >= 0) {
+            if (hashes[index] == hash && Arrays.equals(keys, keyOffsets[index], keyOffsets[index] + keyLengths[index], value, offset, offset + length)) {
+                return addAttribute(index, attributeId, occurrences);
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        // the value is new
+        index = insertValue(value, offset, length, hash);
+        table[slot] = index + 1;
+        firstIds[index] = attributeId;
+        firstOccurrences[index] = occurrences;
+        if (2 * size > table.length) {
+            rehash();
+        }
+        return true;
+    }
+
+    private int insertValue(byte[] value, int offset, int length, int hash) {
+        if (size == hashes.length) {
+            int capacity = 2 * hashes.length;
+            hashes = Arrays.copyOf(hashes, capacity);
+            keyOffsets = Arrays.copyOf(keyOffsets, capacity);
+            keyLengths = Arrays.copyOf(keyLengths, capacity);
+            firstIds = Arrays.copyOf(firstIds, capacity);
+            firstOccurrences = Arrays.copyOf(firstOccurrences, capacity);
+            additionalSizes = Arrays.copyOf(additionalSizes, capacity);
+            additional = Arrays.copyOf(additional, capacity);
+        }
+        if (keysLength + length > keys.length) {
+            keys = Arrays.copyOf(keys, Math.max(2 * keys.length, keysLength + length));
+        }
+        System.arraycopy(value, offset, keys, keysLength, length);
+        int index = size++;
+        hashes[index] = hash;
+        keyOffsets[index] = keysLength;
+        keyLengths[index] = length;
+        additionalSizes[index] = 0;
+        additional[index] = null;
+        keysLength += length;
+        return index;
+    }
+
+    private boolean addAttribute(int index, int attributeId, long occurrences) {
+        if (firstIds[index] == attributeId) {
+            firstOccurrences[index] += occurrences;
+            return false;
+        }
+        long[] pairs = additional[index];
+        int pairCount = additionalSizes[index];
+        if (pairs == null) {
+            pairs = new long[8];
+            additional[index] = pairs;
+            additionalBytes += 16 + 8 * pairs.length;
+        }
+
+        if (pairCount <= MAX_SORTED_ATTRIBUTES) {
+            // small sorted array of (id, occurrences) pairs
+            int low = 0;
+            int high = pairCount - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                long id = pairs[2 * middle];
+                if (id < attributeId) low = middle + 1;
+                else if (id > attributeId) high = middle - 1;
+                else {
+                    pairs[2 * middle + 1] += occurrences;
+                    return false;
+                }
+            }
+            if (pairCount < MAX_SORTED_ATTRIBUTES) {
+                if (2 * pairCount + 2 > pairs.length) {
+                    pairs = growAdditional(index, pairs, 2 * pairs.length);
+                }
+                System.arraycopy(pairs, 2 * low, pairs, 2 * low + 2, 2 * (pairCount - low));
+                pairs[2 * low] = attributeId;
+                pairs[2 * low + 1] = occurrences;
+                additionalSizes[index] = pairCount + 1;
+                return true;
+            }
+            // the sorted array is full -> convert it into a hash table
+            pairs = toHashTable(index, pairs, pairCount);
+            pairCount = additionalSizes[index];
+        }
+
+        boolean isNew = putHashed(pairs, attributeId, occurrences);
+        if (isNew) {
+            pairCount++;
+            additionalSizes[index] = pairCount;
+            if (4 * (pairCount - MAX_SORTED_ATTRIBUTES) > pairs.length) {
+                toHashTable(index, pairs, pairCount);
+            }
+        }
+        return isNew;
+    }
+
+    private long[] growAdditional(int index, long[] pairs, int length) {
+        long[] grown = Arrays.copyOf(pairs, length);
+        additionalBytes += 8L * (length - pairs.length);
+        additional[index] = grown;
+        return grown;
+    }
+
+    /**
+     * Moves all pairs into a new hash table. The size of a hash table is stored with an offset of {@link #MAX_SORTED_ATTRIBUTES}, such that hash tables and sorted arrays
+     * can be distinguished.
+     */
+    private long[] toHashTable(int index, long[] pairs, int pairCount) {
+        boolean sorted = pairCount <= MAX_SORTED_ATTRIBUTES;
+        int count = sorted ? pairCount : pairCount - MAX_SORTED_ATTRIBUTES;
+        int capacity = Integer.highestOneBit(Math.max(16, count * 4 - 1)) * 2;
+        long[] hashed = new long[2 * capacity];
+        for (int i = 0; i < capacity; i++) hashed[2 * i] = EMPTY;
+        if (sorted) {
+            for (int i = 0; i < count; i++) putHashed(hashed, (int) pairs[2 * i], pairs[2 * i + 1]);
+        } else {
+            for (int i = 0; i < pairs.length; i += 2) {
+                if (pairs[i] != EMPTY) putHashed(hashed, (int) pairs[i], pairs[i + 1]);
+            }
+        }
+        additionalBytes += 8L * (hashed.length - pairs.length);
+        additional[index] = hashed;
+        additionalSizes[index] = count + MAX_SORTED_ATTRIBUTES;
+        return hashed;
+    }
+
+    private static boolean putHashed(long[] pairs, int attributeId, long occurrences) {
+        int mask = (pairs.length >>> 1) - 1;
+        int slot = mix(attributeId) & mask;
+        while (pairs[2 * slot] != EMPTY) {
+            if (pairs[2 * slot] == attributeId) {
+                pairs[2 * slot + 1] += occurrences;
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        pairs[2 * slot] = attributeId;
+        pairs[2 * slot + 1] = occurrences;
+        return true;
+    }
+
+    private void rehash() {
+        int[] grown = new int[2 * table.length];
+        int mask = grown.length - 1;
+        for (int index = 0; index < size; index++) {
+            int slot = hashes[index] & mask;
+            while (grown[slot] != 0) slot = (slot + 1) & mask;
+            grown[slot] = index + 1;
+        }
+        table = grown;
+    }
+
+    /**
+     * Writes all values ordered by their bytes, as required by the {@link RecordCodec}.
+     */
+    public void writeSorted(RecordCodec.Writer writer) throws IOException {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) order[i] = i;
+        sort(order, new int[size], 0, size);
+
+        int[] ids = new int[16];
+        long[] occurrences = new long[16];
+        for (int index : order) {
+            int count = 1;
+            ids[0] = firstIds[index];
+            occurrences[0] = firstOccurrences[index];
+            long[] pairs = additional[index];
+            if (pairs != null) {
+                int needed = 1 + pairs.length / 2;
+                if (needed > ids.length) {
+                    ids = Arrays.copyOf(ids, needed);
+                    occurrences = Arrays.copyOf(occurrences, needed);
+                }
+                boolean sorted = additionalSizes[index] <= MAX_SORTED_ATTRIBUTES;
+                int limit = sorted ? 2 * additionalSizes[index] : pairs.length;
+                for (int i = 0; i < limit; i += 2) {
+                    if (pairs[i] == EMPTY) continue;
+                    ids[count] = (int) pairs[i];
+                    occurrences[count++] = pairs[i + 1];
+                }
+            }
+            writer.write(keys, keyOffsets[index], keyLengths[index], ids, occurrences, count);
+        }
+    }
+
+    /**
+     * Removes all values, but keeps the allocated memory for reuse.
+     */
+    public void clear() {
+        Arrays.fill(table, 0);
+        Arrays.fill(additional, 0, size, null);
+        size = 0;
+        keysLength = 0;
+        additionalBytes = 0L;
+    }
+
+    /**
+     * Merge sort of the value indices by their bytes.
+     */
+    private void sort(int[] order, int[] buffer, int from, int to) {
+        if (to - from < 16) {
+            // insertion sort for small ranges
+            for (int i = from + 1; i < to; i++) {
+                int current = order[i];
+                int j = i - 1;
+                while (j >= from && compare(order[j], current) > 0) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = current;
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        sort(order, buffer, from, middle);
+        sort(order, buffer, middle, to);
+        if (compare(order[middle - 1], order[middle]) <= 0) return;
+
+        System.arraycopy(order, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && compare(buffer[left], buffer[right]) <= 0)) order[i] = buffer[left++];
+            else order[i] = buffer[right++];
+        }
+    }
+
+    private int compare(int a, int b) {
+        return Arrays.compareUnsigned(keys, keyOffsets[a], keyOffsets[a] + keyLengths[a], keys, keyOffsets[b], keyOffsets[b] + keyLengths[b]);
+    }
+
+    /**
+     * Encodes the value as UTF-8 into the scratch buffer. Pure ASCII values are encoded without allocating.
+     *
+     * @return the number of bytes written
+     */
+    private int encode(String value) {
+        int length = value.length();
+        if (length > scratch.length) scratch = new byte[Math.max(length, 2 * scratch.length)];
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+                if (encoded.length > scratch.length) scratch = new byte[encoded.length];
+                System.arraycopy(encoded, 0, scratch, 0, encoded.length);
+                return encoded.length;
+            }
+            scratch[i] = (byte) c;
+        }
+        return length;
+    }
+
+    private static int hash(byte[] value, int offset, int length) {
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + value[i];
+        }
+        return mix(hash);
+    }
+
+    private static int mix(int hash) {
+        // finalizer of murmur3 to spread the bits
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
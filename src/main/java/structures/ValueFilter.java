@@ -0,0 +1,103 @@
+package structures;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * The value filter holds the values of a layer, which are still informative for the next layer. Values, that are not contained in it, are masked as null while the next layer
+ * is sorted. The filter is a split block Bloom filter: every value sets one bit in each of the eight words of a single block of 512 bits. A block is a cache line, which is
+ * why a look-up costs a single memory access.
+ * <p>
+ * The filter is sized for the expected number of distinct values with a fixed number of bits per value. It takes the 64-bit value hashes of {@link io.RecordCodec#valueHash},
+ * the upper half chooses the block and the lower half the bits within the block. Values can be added concurrently, the look-ups need to happen after all values have been
+ * added.
+ */
+public class ValueFilter {
+    private static final int WORDS_PER_BLOCK = 8;
+    private static final int[] SALTS = {0x47b6137b, 0x44974d91, 0x8824ad5b, 0xa2b7289d, 0x705495c7, 0x2df1424b, 0x9efc4947, 0x5c6bfb31};
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final long[] words;
+    private final int blocks;
+    // the values, which have set at least one bit, i.e. the distinct values except the false positives
+    private final LongAdder values = new LongAdder();
+    // the values, which have been masked with this filter
+    private final LongAdder masked = new LongAdder();
+
+    /**
+     * @param expectedValues the expected number of distinct values
+     * @param bitsPerValue   the bits per expected value
+     */
+    public ValueFilter(long expectedValues, int bitsPerValue) {
+        long bits = Math.max(1L, expectedValues) * bitsPerValue;
+        this.blocks = (int) Math.min(Integer.MAX_VALUE / WORDS_PER_BLOCK, Math.max(1L, (bits + 511) / 512));
+        this.words = new long[blocks * WORDS_PER_BLOCK];
+    }
+
+    public void put(long hash) {
+        int block = block(hash);
+        int low = (int) hash;
+        boolean changed = false;
+        for (int word = 0; word < WORDS_PER_BLOCK; word++) {
+            long mask = 1L << ((low * SALTS[word]) >>> 26);
+            int index = block + word;
+            // only words, which miss the bit, are written, which keeps the cache lines of common values shared between the threads
+            if ((words[index] & mask) == 0L) {
+                WORDS.getAndBitwiseOr(words, index, mask);
+                changed = true;
+            }
+        }
+        if (changed) values.increment();
+    }
+
+    public boolean mightContain(long hash) {
+        int block = block(hash);
+        int low = (int) hash;
+        for (int word = 0; word < WORDS_PER_BLOCK; word++) {
+            if ((words[block + word] & (1L << ((low * SALTS[word]) >>> 26))) == 0L) return false;
+        }
+        return true;
+    }
+
+    private int block(long hash) {
+        return (int) (((hash >>> 32) * blocks) >>> 32) * WORDS_PER_BLOCK;
+    }
+
+    /**
+     * @return the number of distinct values, which have been added. Values that were false positives when they were added are missing.
+     */
+    public long distinctValues() {
+        return values.sum();
+    }
+
+    public void addMasked(long count) {
+        masked.add(count);
+    }
+
+    /**
+     * @return the number of values, which have been masked with this filter.
+     */
+    public long masked() {
+        return masked.sum();
+    }
+
+    public long sizeInBytes() {
+        return (long) words.length * Long.BYTES;
+    }
+
+    /**
+     * Estimates the false positive rate from the bits which are set: a value, which has not been added, hits a block at random and then needs to find its bit set in every
+     * word of the block.
+     */
+    public double falsePositiveRate() {
+        return IntStream.range(0, blocks).parallel().mapToDouble(block -> {
+            double rate = 1.0;
+            for (int word = 0; word < WORDS_PER_BLOCK; word++) {
+                rate *= Long.bitCount(words[block * WORDS_PER_BLOCK + word]) / 64.0;
+            }
+            return rate;
+        }).sum() / blocks;
+    }
+}
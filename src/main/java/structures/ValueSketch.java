@@ -0,0 +1,84 @@
+package structures;
+
+import io.RecordCodec;
+
+import java.util.Arrays;
+
+/**
+ * A bottom-k sketch of the distinct values of an attribute. It keeps the {@link #SIZE} smallest hashes of the values, which means it contains the hash of every value, whose
+ * hash is at most its threshold. Attributes with at most SIZE distinct values are therefore stored completely.
+ * <p>
+ * The sketches of two attributes give a lower bound of the dependant values, which are not contained in the referenced attribute: Below the smaller threshold of both
+ * sketches, every hash of the dependant attribute, that is missing in the referenced sketch, belongs to a value, which the referenced attribute does not contain. Since every
+ * such value is at least one violation, a candidate can be dropped before the validation, once the bound exceeds its violations. Colliding hashes only make the bound smaller.
+ */
+public class ValueSketch {
+    public static final int SIZE = 256;
+    // the sorted distinct hashes, all of them are non-negative
+    private long[] hashes = new long[16];
+    private int size;
+
+    /**
+     * Adds a value. The value is hashed like its UTF-8 bytes, see {@link RecordCodec#valueHash(String)}. The sign bit of the hash is cleared, so that the hashes can be
+     * compared as signed longs.
+     */
+    public void add(String value) {
+        add(RecordCodec.valueHash(value) >>> 1);
+    }
+
+    public void add(byte[] value, int offset, int length) {
+        add(RecordCodec.valueHash(value, offset, length) >>> 1);
+    }
+
+    private void add(long hash) {
+        if (size == SIZE && hash >= hashes[SIZE - 1]) return;
+        int position = Arrays.binarySearch(hashes, 0, size, hash);
+        if (position >= 0) return;
+        position = -position - 1;
+        if (size < SIZE) {
+            if (size == hashes.length) hashes = Arrays.copyOf(hashes, Math.min(SIZE, 2 * size));
+            size++;
+        }
+        System.arraycopy(hashes, position, hashes, position + 1, size - position - 1);
+        hashes[position] = hash;
+    }
+
+    /**
+     * Adds all values of another sketch, which has been collected from a different part of the same attribute.
+     */
+    public synchronized void merge(ValueSketch other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.hashes[i]);
+        }
+    }
+
+    /**
+     * @return the largest hash, up to which the sketch holds the hash of every value.
+     */
+    private long threshold() {
+        return size == SIZE ? hashes[SIZE - 1] : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return an estimate of the number of distinct values, which is exact as long as the sketch holds every value.
+     */
+    public long distinctValues() {
+        if (size < SIZE) return size;
+        // the SIZE smallest hashes are spread over [0, threshold] like the hashes of all values over [0, Long.MAX_VALUE]
+        return (long) ((SIZE - 1) * ((double) Long.MAX_VALUE / hashes[SIZE - 1]));
+    }
+
+    /**
+     * @return a lower bound of the number of distinct values of this attribute, which are not contained in the other attribute.
+     */
+    public int notContainedIn(ValueSketch other) {
+        long threshold = Math.min(threshold(), other.threshold());
+        int notContained = 0;
+        int j = 0;
+        for (int i = 0; i < size && hashes[i] <= threshold; i++) {
+            while (j < other.size && other.hashes[j] < hashes[i]) j++;
+            if (j == other.size || other.hashes[j] != hashes[i]) notContained++;
+        }
+        return notContained;
+    }
+}